@@ -0,0 +1,102 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks creating a whole archive, i.e. adding all files of a {@link Corpus} and closing the archive,
+ * serially and in parallel.
+ * <p>
+ * Besides archives per second, the input bytes per second are reported, as the secondary result "bytes".
+ * Run with {@code ./gradlew jmh}; the results, including the allocation rate, are written as JSON to
+ * {@code build/reports/jmh/results.json}.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class ArchiveBenchmark {
+
+    /**
+     * The corpus, and the archive options.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"SMALL_FILES", "HUGE_FILES"})
+        public Corpus.Shape shape;
+
+        @Param({"TEXT", "RANDOM"})
+        public Corpus.Content content;
+
+        @Param({"false", "true"})
+        public boolean parallel;
+
+        Corpus corpus;
+        Path archive;
+        Map<Option, String> options;
+        private PrintStream out;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            corpus = Corpus.create(shape, content);
+            archive = Files.createTempFile("zipp-jmh", ".zip");
+            options = new EnumMap<>(Option.class);
+            options.put(Option.RECURSIVE, "");
+            if (parallel)
+                options.put(Option.PARALLEL, "");
+            // Silence the per-file progress output
+            out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            System.setOut(out);
+            Files.deleteIfExists(archive);
+            corpus.delete();
+        }
+    }
+
+    /**
+     * Input bytes processed, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Benchmark
+    public void createArchive(final Input input, final Bytes bytes) throws IOException, InterruptedException {
+        try (Zipp zip = new Zipp(input.archive.toString(), input.options)) {
+            zip.addFiles(Collections.singletonList(input.corpus.directory().toString()));
+        }
+        bytes.bytes += input.corpus.bytes();
+    }
+}
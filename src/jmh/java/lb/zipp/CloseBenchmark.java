@@ -0,0 +1,85 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the finalisation of an archive, i.e. {@link Zipp#close()}, which waits for the writer to append
+ * the entries still queued, and then writes the central directory.
+ * <p>
+ * All files are added before each (single shot) measurement, outside the measured time.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class CloseBenchmark {
+    @Param({"SMALL_FILES", "HUGE_FILES"})
+    public Corpus.Shape shape;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Corpus corpus;
+    private Path archive;
+    private Map<Option, String> options;
+    private PrintStream out;
+    private Zipp zip;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        corpus = Corpus.create(shape, Corpus.Content.TEXT);
+        archive = Files.createTempFile("zipp-jmh", ".zip");
+        options = new EnumMap<>(Option.class);
+        options.put(Option.RECURSIVE, "");
+        if (parallel)
+            options.put(Option.PARALLEL, "");
+        // Silence the per-file progress output
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Setup(Level.Iteration)
+    public void addFiles() throws IOException, InterruptedException {
+        zip = new Zipp(archive.toString(), options);
+        zip.addFiles(Collections.singletonList(corpus.directory().toString()));
+    }
+
+    @Benchmark
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        Files.deleteIfExists(archive);
+        corpus.delete();
+    }
+}
@@ -0,0 +1,142 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * A reproducible set of input files for the benchmarks, generated from a fixed seed into a temporary directory.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class Corpus {
+    private static final long SEED = 20190326L;
+    private static final String[] WORDS = {
+            "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+            "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim",
+            "ad", "minim", "veniam", "quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip",
+            "ex", "ea", "commodo", "consequat", "duis", "aute", "irure", "in", "reprehenderit", "voluptate"};
+
+    /**
+     * The number and sizes of the files.
+     */
+    enum Shape {
+        /** Many files of 1 to 16 KB, where per-file overhead dominates */
+        SMALL_FILES(4000, 1024, 16 * 1024),
+        /** A few files above the default block threshold, deflated in parallel blocks in parallel mode */
+        HUGE_FILES(2, 96 << 20, 96 << 20);
+
+        final int count;
+        final int minSize;
+        final int maxSize;
+
+        Shape(final int count, final int minSize, final int maxSize) {
+            this.count = count;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * The contents of the files.
+     */
+    enum Content {
+        /** Words of text, deflating to about a third */
+        TEXT,
+        /** Random bytes, which do not deflate at all */
+        RANDOM
+    }
+
+    private final Path directory;
+    private final long bytes;
+
+    private Corpus(final Path directory, final long bytes) {
+        this.directory = directory;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Generates a corpus in a new temporary directory.
+     * @param shape Number and sizes of files
+     * @param content Contents of files
+     * @return Corpus
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    static Corpus create(final Shape shape, final Content content) throws IOException {
+        final Path directory = Files.createTempDirectory("zipp-jmh");
+        final Random random = new Random(SEED);
+        final byte[] buf = new byte[64 * 1024];
+        long bytes = 0;
+        for (int i = 0; i < shape.count; i++) {
+            final int size = shape.minSize + random.nextInt(shape.maxSize - shape.minSize + 1);
+            try (OutputStream out = Files.newOutputStream(directory.resolve(String.format("f%05d.dat", i)))) {
+                for (int done = 0; done < size; ) {
+                    final int n = Math.min(buf.length, size - done);
+                    fill(buf, n, content, random);
+                    out.write(buf, 0, n);
+                    done += n;
+                }
+            }
+            bytes += size;
+        }
+        return new Corpus(directory, bytes);
+    }
+
+    private static void fill(final byte[] buf, final int n, final Content content, final Random random) {
+        if (content == Content.RANDOM) {
+            random.nextBytes(buf);
+            return;
+        }
+        int pos = 0;
+        while (pos < n) {
+            final byte[] word = (WORDS[random.nextInt(WORDS.length)] + (random.nextInt(12) == 0 ? ".\n" : " "))
+                    .getBytes(StandardCharsets.US_ASCII);
+            final int len = Math.min(word.length, n - pos);
+            System.arraycopy(word, 0, buf, pos, len);
+            pos += len;
+        }
+    }
+
+    /**
+     * Returns the directory holding the files.
+     * @return Directory
+     */
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * Returns the total size of the files.
+     * @return Size in bytes
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Deletes the corpus directory and everything in it.
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    void delete() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
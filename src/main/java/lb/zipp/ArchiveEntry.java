@@ -0,0 +1,180 @@
+package lb.zipp;
+
+/**
+ * Describes one entry of a zip archive: the values recorded in its local header and
+ * central directory record.
+ * <p>
+ * Instances are created by the compressing workers, together with the compressed
+ * {@link EntryData data}, and handed to the {@link ZipWriter}, which assigns the
+ * {@link #offset() local header offset} when the entry is written.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ArchiveEntry {
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final long compressedSize;
+    private final long dosTime;
+    private EntryData data;
+    private long offset = -1;
+    private long[] timing;
+
+    /**
+     * Creates an entry description.
+     * @param name Entry name, using '/' as separator; directories end with '/'
+     * @param method Compression method, e.g. {@link ZipFormat#DEFLATED}
+     * @param crc CRC-32 of the uncompressed data
+     * @param size Uncompressed size
+     * @param compressedSize Compressed size
+     * @param dosTime Modification time, in MS-DOS format
+     * @param data Compressed data, or null if the entry has no data
+     */
+    ArchiveEntry(final String name, final int method, final long crc, final long size,
+                 final long compressedSize, final long dosTime, final EntryData data) {
+        this(name, ZipFormat.FLAG_UTF8, method, crc, size, compressedSize, dosTime, data);
+    }
+
+    private ArchiveEntry(final String name, final int flags, final int method, final long crc, final long size,
+                         final long compressedSize, final long dosTime, final EntryData data) {
+        this.name = name;
+        this.flags = flags;
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.dosTime = dosTime;
+        this.data = data;
+    }
+
+    /**
+     * Creates the description of an entry already present in an archive, as read from its central directory.
+     * @param name Entry name
+     * @param flags General purpose bit flags
+     * @param method Compression method
+     * @param crc CRC-32 of the uncompressed data
+     * @param size Uncompressed size
+     * @param compressedSize Compressed size
+     * @param dosTime Modification time, in MS-DOS format
+     * @param offset Local header offset
+     * @return Entry, without data
+     */
+    static ArchiveEntry existing(final String name, final int flags, final int method, final long crc,
+                                 final long size, final long compressedSize, final long dosTime, final long offset) {
+        final ArchiveEntry entry = new ArchiveEntry(name, flags, method, crc, size, compressedSize, dosTime, null);
+        entry.offset = offset;
+        return entry;
+    }
+
+    /**
+     * Returns a copy of this entry's description, with the given data.
+     * @param data Data of the new entry, e.g. the raw compressed data of this entry
+     * @return New entry, not yet written
+     */
+    ArchiveEntry withData(final EntryData data) {
+        return new ArchiveEntry(name, flags, method, crc, size, compressedSize, dosTime, data);
+    }
+
+    /**
+     * Returns a copy of this entry's description, under another name, with the given data.
+     * @param name Name of the new entry
+     * @param dosTime Modification time of the new entry, in MS-DOS format
+     * @param data Data of the new entry, i.e. the same compressed data as this entry's
+     * @return New entry, not yet written
+     */
+    ArchiveEntry copy(final String name, final long dosTime, final EntryData data) {
+        return new ArchiveEntry(name, flags, method, crc, size, compressedSize, dosTime, data);
+    }
+
+    /**
+     * Creates a directory entry.
+     * @param name Directory name, ending with '/'
+     * @param dosTime Modification time, in MS-DOS format
+     * @return Directory entry
+     */
+    static ArchiveEntry directory(final String name, final long dosTime) {
+        return new ArchiveEntry(name, ZipFormat.STORED, 0, 0, 0, dosTime, null);
+    }
+
+    String name() {
+        return name;
+    }
+
+    int flags() {
+        return flags;
+    }
+
+    int method() {
+        return method;
+    }
+
+    long crc() {
+        return crc;
+    }
+
+    long size() {
+        return size;
+    }
+
+    long compressedSize() {
+        return compressedSize;
+    }
+
+    long dosTime() {
+        return dosTime;
+    }
+
+    boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    EntryData data() {
+        return data;
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    /**
+     * Records where the local header was written, and drops the reference to the data,
+     * which is no longer needed.
+     * @param offset Local header offset
+     */
+    void written(final long offset) {
+        this.offset = offset;
+        if (data != null) {
+            data.release();
+            data = null;
+        }
+    }
+
+    /**
+     * Attaches the time spent in each phase of adding this entry, so far; see {@link Metrics}.
+     * @param timing Nanoseconds per phase, added to by later phases
+     * @return This entry
+     */
+    ArchiveEntry timed(final long[] timing) {
+        this.timing = timing;
+        return this;
+    }
+
+    /**
+     * Returns the time spent in each phase of adding this entry.
+     * @return Nanoseconds per phase, or null if not timed
+     */
+    long[] timing() {
+        return timing;
+    }
+
+    /**
+     * Returns the compression ratio, in percent, for log output.
+     * @return Saved space in percent of the uncompressed size
+     */
+    double compression() {
+        return size == 0 ? 0 : (size - compressedSize) * 100.0 / size;
+    }
+}
@@ -0,0 +1,228 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A persistent, on-disk cache of compressed entry data, so that unchanged files are neither read nor
+ * compressed again by later runs.
+ * <p>
+ * Each blob holds the compressed data of one file, after a small header with its method, CRC, modification
+ * time and sizes. Blobs are named by a SHA-256 digest of the file's absolute path, size, modification time
+ * and file key (the inode, where supported), and of the compression settings, so a changed file, or other
+ * settings, simply miss. On a hit, the entry's data is copied from the blob to the archive when written.
+ * <p>
+ * A blob's modification time records its last use. When the cache is {@link #close() closed}, the least
+ * recently used blobs are deleted until the cache fits its size cap; blobs are never deleted during a run,
+ * as queued entries may still be copied from them. All methods are thread safe.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class BlobCache {
+    private static final int MAGIC = 0x7A706263; // "zpbc"
+    private static final int HEADER_SIZE = 32;
+    private static final String SUFFIX = ".blob";
+
+    private final Path directory;
+    private final long maxSize;
+    private final String variant;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private long evicted;
+
+    /**
+     * Opens a cache, creating its directory if needed.
+     * @param directory Cache directory
+     * @param maxSize Size cap, in bytes
+     * @param variant Compression settings, e.g. the codec and level, part of every key
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    BlobCache(final Path directory, final long maxSize, final String variant) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        this.variant = variant;
+    }
+
+    /**
+     * Returns the cache key of the given file's current contents.
+     * @param file Path of file
+     * @return Key, naming the file's blob
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    String key(final Path file) throws IOException {
+        return key(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    /**
+     * Returns the cache key of the given file's contents, given its attributes, as already read by the caller.
+     * @param file Path of file
+     * @param attrs Attributes of the file
+     * @return Key, naming the file's blob
+     */
+    String key(final Path file, final BasicFileAttributes attrs) {
+        final String id = String.join("\0", variant, file.toAbsolutePath().normalize().toString(),
+                Long.toString(attrs.size()), attrs.lastModifiedTime().toString(), String.valueOf(attrs.fileKey()));
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Required of every Java platform
+        }
+        final StringBuilder key = new StringBuilder(2 * digest.length);
+        for (byte b : digest)
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return key.toString();
+    }
+
+    /**
+     * Looks up a blob, and marks it as used.
+     * @param key Key of the file
+     * @param entryName Name of the entry to create
+     * @return Entry, with its data in the blob, or null on a miss
+     */
+    ArchiveEntry get(final String key, final String entryName) {
+        final Path blob = directory.resolve(key + SUFFIX);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel in = FileChannel.open(blob, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // Read the whole header
+            }
+            header.flip();
+            if (header.remaining() == HEADER_SIZE && header.getInt(0) == MAGIC
+                    && header.getLong(24) == in.size() - HEADER_SIZE) {
+                Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.increment();
+                return new ArchiveEntry(entryName, header.getShort(4) & 0xFFFF, header.getInt(8) & 0xFFFFFFFFL,
+                        header.getLong(16), header.getLong(24), header.getInt(12) & 0xFFFFFFFFL,
+                        new FileRegion(blob, HEADER_SIZE, header.getLong(24)));
+            }
+            Files.deleteIfExists(blob); // Truncated or foreign
+        } catch (NoSuchFileException e) {
+            // A miss
+        } catch (IOException e) {
+            // Unreadable, so a miss
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores the compressed data of an entry, unless stored, i.e. uncompressed. The blob is written beside
+     * its final name and then moved into place, so concurrent runs never see partial blobs. Failures are
+     * ignored, as the cache only saves work.
+     * @param key Key of the file, as computed before it was read
+     * @param entry Compressed entry, not yet written
+     * @return The given entry
+     */
+    ArchiveEntry put(final String key, final ArchiveEntry entry) {
+        if (entry.method() == ZipFormat.STORED || entry.data() == null)
+            return entry;
+        final Path blob = directory.resolve(key + SUFFIX);
+        final Path temp = directory.resolve(key + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .putInt(MAGIC)
+                        .putShort((short) entry.method())
+                        .putShort((short) 0)
+                        .putInt((int) entry.crc())
+                        .putInt((int) entry.dosTime())
+                        .putLong(entry.size())
+                        .putLong(entry.compressedSize());
+                header.flip();
+                while (header.hasRemaining())
+                    out.write(header);
+                entry.data().writeTo(out);
+            }
+            Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stored.increment();
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Nothing more to do
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Deletes the least recently used blobs until the cache fits its size cap.
+     * @throws IOException Thrown on any underlying IO errors while listing the cache
+     */
+    synchronized void close() throws IOException {
+        final List<Path> blobs = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            ds.forEach(blobs::add);
+        }
+        final List<BasicFileAttributes> attrs = new ArrayList<>(blobs.size());
+        long total = 0;
+        for (Path blob : blobs) {
+            final BasicFileAttributes a = Files.readAttributes(blob, BasicFileAttributes.class);
+            attrs.add(a);
+            total += a.size();
+        }
+        final List<Integer> order = new ArrayList<>(blobs.size());
+        for (int i = 0; i < blobs.size(); i++)
+            order.add(i);
+        order.sort(Comparator.comparing(i -> attrs.get(i).lastModifiedTime()));
+        for (int i : order) {
+            if (total <= maxSize)
+                break;
+            Files.deleteIfExists(blobs.get(i));
+            total -= attrs.get(i).size();
+            evicted += attrs.get(i).size();
+        }
+    }
+
+    /**
+     * Returns the number of hits.
+     * @return Number of files found in the cache
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of misses.
+     * @return Number of files not found in the cache
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of blobs stored.
+     * @return Number of files added to the cache
+     */
+    long stored() {
+        return stored.sum();
+    }
+
+    /**
+     * Returns the number of bytes evicted when closed.
+     * @return Number of bytes
+     */
+    synchronized long evicted() {
+        return evicted;
+    }
+}
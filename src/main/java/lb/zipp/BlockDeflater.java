@@ -0,0 +1,248 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates a single large input in parallel, pigz style.
+ * <p>
+ * The input is split into fixed-size blocks, which are deflated as separate tasks. Each block is primed
+ * with the last 32 KB of the previous block as its dictionary, so the compression ratio is nearly that of
+ * a single stream, and ends with a sync flush, so the block outputs can simply be concatenated.
+ * A final empty block terminates the combined deflate stream. The CRC-32 of the whole input is combined
+ * from the CRCs of the blocks.
+ * <p>
+ * Blocks are memory-mapped, and deflated straight from the mapping into heap buffers, so the input never
+ * passes through the heap.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class BlockDeflater {
+    /** Deflate window size, i.e. the largest useful dictionary */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /** An empty, final, fixed-Huffman deflate block */
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+
+    private final int blockSize;
+    private final int level;
+    private final ForkJoinPool pool;
+    private final MemoryBudget budget;
+
+    /**
+     * Creates a block deflater.
+     * @param blockSize Size of each block, in bytes
+     * @param level Compression level, 0-9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param pool Pool executing the block compression tasks
+     * @param budget Memory budget, from which each block is reserved until compressed
+     */
+    BlockDeflater(final int blockSize, final int level, final ForkJoinPool pool, final MemoryBudget budget) {
+        this.blockSize = blockSize;
+        this.level = level;
+        this.pool = pool;
+        this.budget = budget;
+    }
+
+    /**
+     * Result of compressing one block.
+     */
+    private static final class Block {
+        final EntryBuffer compressed;
+        final long crc;
+        final int length;
+
+        Block(final EntryBuffer compressed, final long crc, final int length) {
+            this.compressed = compressed;
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Result of compressing a whole input.
+     */
+    static final class Result {
+        final long crc;
+        final long size;
+
+        Result(final long crc, final long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Maps the input sequentially and deflates its blocks in parallel. At most twice the pool's
+     * parallelism of blocks are in flight at any time, and fewer if the memory budget is used up.
+     * @param in Input, read up to the size it has when the last block is mapped
+     * @param out Receives the combined raw deflate stream
+     * @return CRC-32 and size of the input
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    Result deflate(final FileChannel in, final EntryBuffer out) throws IOException {
+        final int window = Math.max(2, 2 * pool.getParallelism());
+        final Deque<ForkJoinTask<Block>> inFlight = new ArrayDeque<>(window);
+        long crc = 0;
+        long size = 0;
+        long position = 0;
+        ByteBuffer previous = null;
+        try {
+            while (true) {
+                // Reserve memory for the next block, completing the oldest blocks until there is room
+                boolean reserved = false;
+                while (!reserved) {
+                    if (inFlight.size() < window && budget.tryReserve(blockSize)) {
+                        reserved = true;
+                    } else if (!inFlight.isEmpty()) {
+                        final Block b = complete(inFlight.removeFirst(), out);
+                        crc = crc32Combine(crc, b.crc, b.length);
+                        size += b.length;
+                    } else {
+                        budget.reserve(blockSize);
+                        reserved = true;
+                    }
+                }
+                final int length;
+                final ByteBuffer block;
+                try {
+                    length = (int) Math.min(blockSize, in.size() - position);
+                    if (length <= 0) {
+                        budget.release(blockSize);
+                        break;
+                    }
+                    block = EntryCompressor.map(in, position, length);
+                    final ByteBuffer dictionary = previous;
+                    inFlight.addLast(pool.submit(() -> deflateBlock(block.duplicate(), dictionary)));
+                } catch (IOException | RuntimeException e) {
+                    budget.release(blockSize); // Not yet in flight
+                    throw e;
+                }
+                previous = block;
+                position += length;
+                if (length < blockSize)
+                    break;
+            }
+            while (!inFlight.isEmpty()) {
+                final Block b = complete(inFlight.removeFirst(), out);
+                crc = crc32Combine(crc, b.crc, b.length);
+                size += b.length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            for (ForkJoinTask<Block> task : inFlight) {
+                task.cancel(false);
+                budget.release(blockSize);
+            }
+        }
+        out.write(FINAL_BLOCK, 0, FINAL_BLOCK.length);
+        return new Result(crc, size);
+    }
+
+    /**
+     * Waits for a block taken off the blocks in flight, and appends its compressed data to the output.
+     * The block's reservation, and its compressed data, are released also if it failed.
+     */
+    private Block complete(final ForkJoinTask<Block> task, final EntryBuffer out) throws IOException {
+        try {
+            final Block b = task.join();
+            try {
+                b.compressed.writeTo(out);
+            } finally {
+                b.compressed.release();
+            }
+            return b;
+        } finally {
+            budget.release(blockSize);
+        }
+    }
+
+    /**
+     * Deflates one block, ending with a sync flush so that the output ends on a byte boundary.
+     * The block's compressed data is covered by the block's reservation, so it is buffered outside the budget.
+     */
+    private Block deflateBlock(final ByteBuffer block, final ByteBuffer previous) {
+        final int length = block.remaining();
+        final CRC32 crc = new CRC32();
+        crc.update(block.duplicate());
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null) {
+                final ByteBuffer dictionary = previous.duplicate();
+                dictionary.position(Math.max(0, dictionary.limit() - DICTIONARY_SIZE));
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(block);
+            final EntryBuffer compressed = new EntryBuffer();
+            while (compressed.deflate(deflater, Deflater.SYNC_FLUSH)) {
+                // The output filled the space offered, so more may be pending
+            }
+            return new Block(compressed, crc.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Combines two CRC-32 values, as zlib's {@code crc32_combine}: given the CRCs of two sequences A and B,
+     * returns the CRC of A followed by B.
+     * @param crc1 CRC-32 of the first sequence
+     * @param crc2 CRC-32 of the second sequence
+     * @param len2 Length of the second sequence
+     * @return CRC-32 of the concatenation
+     */
+    static long crc32Combine(long crc1, final long crc2, long len2) {
+        if (len2 <= 0)
+            return crc1;
+        final long[] even = new long[32];   // even-power-of-two zeros operator
+        final long[] odd = new long[32];    // odd-power-of-two zeros operator
+
+        odd[0] = 0xEDB88320L;               // CRC-32 polynomial
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);         // two zero bits
+        gf2MatrixSquare(odd, even);         // four zero bits
+
+        // Apply len2 zeros to crc1 (first square puts the operator for one zero byte in even)
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0)
+                crc1 = gf2MatrixTimes(even, crc1);
+            len2 >>= 1;
+            if (len2 == 0)
+                break;
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0)
+                crc1 = gf2MatrixTimes(odd, crc1);
+            len2 >>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(final long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0)
+                sum ^= mat[i];
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(final long[] square, final long[] mat) {
+        for (int n = 0; n < 32; n++)
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+    }
+}
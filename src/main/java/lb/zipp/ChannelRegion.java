@@ -0,0 +1,52 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Entry data residing in a region of a file, typically the raw compressed data of an entry in another
+ * archive. The data is copied with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, i.e.
+ * without passing through the heap where the platform allows.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ChannelRegion implements EntryData {
+    private final FileChannel source;
+    private final long position;
+    private final long size;
+
+    /**
+     * Creates a region of the given channel. The channel is not closed by this class.
+     * @param source Channel to copy from
+     * @param position Position of the first byte
+     * @param size Number of bytes
+     */
+    ChannelRegion(final FileChannel source, final long position, final long size) {
+        this.source = source;
+        this.position = position;
+        this.size = size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void writeTo(final WritableByteChannel out) throws IOException {
+        long done = 0;
+        while (done < size) {
+            final long n = source.transferTo(position + done, size - done, out);
+            if (n <= 0 && source.size() < position + size)
+                throw new IOException("Unexpected end of file while copying entry data");
+            done += n;
+        }
+    }
+
+    @Override
+    public void release() {
+        // The channel is owned by the caller
+    }
+}
@@ -0,0 +1,54 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A compression method for entry data, e.g. deflate at a given level, or Zstandard.
+ * <p>
+ * Data is compressed by an {@link Encoder}, fed with one chunk of input at a time, into an {@link EntryBuffer}.
+ * Stored entries need no codec: their data is copied as is.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+interface Codec {
+
+    /**
+     * Compresses the data of one entry. Only one thread at a time may use an encoder; consecutive chunks may be
+     * fed by different threads.
+     */
+    interface Encoder {
+        /**
+         * Compresses a chunk of input, consuming all of it.
+         * @param chunk Input
+         * @throws IOException Thrown on any underlying IO errors
+         */
+        void update(ByteBuffer chunk) throws IOException;
+
+        /**
+         * Compresses any remaining input, and ends the compressed data.
+         * @throws IOException Thrown on any underlying IO errors
+         */
+        void finish() throws IOException;
+
+        /**
+         * Frees any resources held, whether finished or not.
+         */
+        void end();
+    }
+
+    /**
+     * Returns the zip compression method of this codec, e.g. {@link ZipFormat#DEFLATED}.
+     * @return Compression method
+     */
+    int method();
+
+    /**
+     * Creates an encoder, writing to the given buffer.
+     * @param out Receives the compressed data
+     * @return New encoder
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    Encoder newEncoder(EntryBuffer out) throws IOException;
+}
@@ -0,0 +1,304 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Generates a synthetic corpus of files to archive, for benchmarking with {@link Option#GENERATE}: a given total
+ * size, split into a given number of files by a size {@link Distribution}, with contents of each {@link Content}
+ * kind, mixed by weight.
+ * <p>
+ * The corpus depends on the seed only, never on the machine, nor on the number of threads: the sizes of all files
+ * are drawn first, from one {@link Random} (whose algorithm is specified), with {@link StrictMath}, and their
+ * kinds assigned, so that the bytes of each kind follow the mix; the contents of each file are then generated, in parallel, from a SplitMix64 sequence seeded with the seed
+ * and the file's number. So {@code --test} figures from the same seed can be compared across machines and releases.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class CorpusGenerator {
+    /** Default seed */
+    static final long DEFAULT_SEED = 20190326L;
+
+    /** Default total size of the files */
+    static final long DEFAULT_SIZE = 256L << 20;
+
+    /** Default number of files */
+    static final int DEFAULT_FILES = 1000;
+
+    /** Default weights of the contents, in the syntax of {@link #parseMix(String)} */
+    static final String DEFAULT_MIX = "text:70,random:10,packed:20";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 3};
+    private static final String[] WORDS = {
+            "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+            "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim",
+            "ad", "minim", "veniam", "quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip",
+            "ex", "ea", "commodo", "consequat", "duis", "aute", "irure", "in", "reprehenderit", "voluptate"};
+    private static final byte[][] SPACED = words(" ");
+    private static final byte[][] STOPPED = words(".\n");
+
+    /**
+     * How the total size is split between the files.
+     */
+    enum Distribution {
+        /** All files of the same size */
+        EQUAL,
+        /** Sizes uniformly distributed, from zero to twice the mean */
+        UNIFORM,
+        /** Sizes log-normally distributed: many small files, and a few files many times the mean, as on real disks */
+        LOGNORMAL
+    }
+
+    /**
+     * The kinds of contents.
+     */
+    enum Content {
+        /** Words of text, deflating to about a fifth */
+        TEXT(".txt"),
+        /** Random bytes, which do not deflate at all */
+        RANDOM(".bin"),
+        /** Nearly random bytes after a gzip header, which deflate by a few percent, like already compressed data */
+        PACKED(".gz");
+
+        final String suffix;
+
+        Content(final String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    private final long seed;
+    private final long[] sizes;
+    private final Content[] contents;
+    private final LongAdder[] bytes = {new LongAdder(), new LongAdder(), new LongAdder()};
+
+    /**
+     * Plans a corpus: draws the size and contents of every file.
+     * @param seed Seed
+     * @param totalSize Total size of the files, in bytes
+     * @param files Number of files
+     * @param distribution Distribution of the sizes
+     * @param mix Weights of the contents, by bytes, indexed by {@link Content#ordinal()}
+     */
+    CorpusGenerator(final long seed, final long totalSize, final int files, final Distribution distribution,
+                    final double[] mix) {
+        this.seed = seed;
+        this.sizes = new long[files];
+        this.contents = new Content[files];
+        final Random random = new Random(seed);
+        final double[] weights = new double[files];
+        double sum = 0;
+        for (int i = 0; i < files; i++) {
+            switch (distribution) {
+                case EQUAL: weights[i] = 1; break;
+                case UNIFORM: weights[i] = random.nextDouble(); break;
+                default: weights[i] = StrictMath.exp(1.5 * random.nextGaussian());
+            }
+            sum += weights[i];
+        }
+        long left = totalSize;
+        for (int i = 0; i < files; i++) {
+            sizes[i] = sum > 0 ? (long) (totalSize * (weights[i] / sum)) : 0;
+            left -= sizes[i];
+        }
+        for (int i = 0; left > 0; i = (i + 1) % files, left--)
+            sizes[i]++; // Rounding leftovers
+        assignContents(mix);
+    }
+
+    /**
+     * Assigns the contents of the files so that their byte totals, not their file counts, follow the weights:
+     * largest first, each file gets the contents furthest below its share of the total size. Each kind thus ends
+     * up within about one file's size of its share; the largest files are spread over the kinds first, while the
+     * many small files even out the rest.
+     */
+    private void assignContents(final double[] mix) {
+        double mixSum = 0;
+        for (double w : mix)
+            mixSum += w;
+        long total = 0;
+        for (long size : sizes)
+            total += size;
+        final double[] left = new double[mix.length]; // Bytes still to assign, per kind
+        for (int c = 0; c < mix.length; c++)
+            left[c] = total * (mix[c] / mixSum);
+        final Integer[] order = new Integer[sizes.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> sizes[i]).reversed().thenComparingInt(i -> i));
+        for (int i : order) {
+            int best = -1;
+            for (int c = 0; c < mix.length; c++) {
+                if (mix[c] > 0 && (best < 0 || left[c] > left[best]))
+                    best = c;
+            }
+            left[best] -= sizes[i];
+            contents[i] = Content.values()[best];
+        }
+    }
+
+    /**
+     * Parses the weights of the contents, by bytes, e.g. "text:70,random:10,packed:20". Contents not given weigh
+     * nothing.
+     * @param value Comma-separated pairs of content name and weight
+     * @return Weights, indexed by {@link Content#ordinal()}
+     * @throws IllegalOptionException If the value isn't a valid mix.
+     */
+    static double[] parseMix(final String value) {
+        final double[] mix = new double[Content.values().length];
+        try {
+            for (String part : value.split(",")) {
+                final int colon = part.indexOf(':');
+                final Content content = Content.valueOf(part.substring(0, colon).trim().toUpperCase(Locale.ROOT));
+                mix[content.ordinal()] = Double.parseDouble(part.substring(colon + 1));
+                if (!(mix[content.ordinal()] >= 0))
+                    throw new IllegalArgumentException(part);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalOptionException(String.format("Invalid mix '%s'", value));
+        }
+        double sum = 0;
+        for (double w : mix)
+            sum += w;
+        if (sum <= 0)
+            throw new IllegalOptionException(String.format("Invalid mix '%s'", value));
+        return mix;
+    }
+
+    /**
+     * Parses the name of a size distribution.
+     * @param value Name, e.g. "lognormal"
+     * @return Distribution
+     * @throws IllegalOptionException If the name isn't known.
+     */
+    static Distribution parseDistribution(final String value) {
+        try {
+            return Distribution.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalOptionException(String.format("Unknown distribution '%s'", value));
+        }
+    }
+
+    /**
+     * Writes the files, in parallel, into the given directory, named by number, and suffixed by their contents.
+     * @param directory Existing directory
+     * @return Paths of the files, in order
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    List<Path> generate(final Path directory) throws IOException {
+        final List<Path> files = new ArrayList<>(sizes.length);
+        for (int i = 0; i < sizes.length; i++)
+            files.add(directory.resolve(String.format("f%05d%s", i, contents[i].suffix)));
+        try {
+            IntStream.range(0, sizes.length).parallel().forEach(i -> {
+                try {
+                    write(files.get(i), i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return files;
+    }
+
+    private void write(final Path file, final int i) throws IOException {
+        final long size = sizes[i];
+        final Content content = contents[i];
+        final SplitMix64 random = new SplitMix64(seed + (i + 1) * GOLDEN_GAMMA);
+        final byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, Math.max(size, GZIP_HEADER.length))];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long done = 0; done < size; ) {
+                final int n = (int) Math.min(buf.length, size - done);
+                fill(buf, n, content, random, done == 0);
+                out.write(buf, 0, n);
+                done += n;
+            }
+        }
+        bytes[content.ordinal()].add(size);
+    }
+
+    private static void fill(final byte[] buf, final int n, final Content content, final SplitMix64 random,
+                             final boolean first) {
+        if (content == Content.TEXT) {
+            for (int pos = 0; pos < n; ) {
+                final long r = random.next();
+                final byte[] word = ((r >>> 6) & 15) == 0
+                        ? STOPPED[(int) ((r >>> 10) % WORDS.length)] : SPACED[(int) ((r >>> 10) % WORDS.length)];
+                final int len = Math.min(word.length, n - pos);
+                System.arraycopy(word, 0, buf, pos, len);
+                pos += len;
+            }
+            return;
+        }
+        final ByteBuffer bb = ByteBuffer.wrap(buf, 0, n).order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.remaining() >= Long.BYTES) {
+            // Packed: the low bit of every byte is set 3 times out of 4, as skewed as compressed data
+            bb.putLong(content == Content.RANDOM ? random.next() : random.next() | (random.next() & 0x0101010101010101L));
+        }
+        for (long r = random.next(); bb.hasRemaining(); r >>>= 8)
+            bb.put((byte) r);
+        if (content == Content.PACKED && first)
+            System.arraycopy(GZIP_HEADER, 0, buf, 0, Math.min(n, GZIP_HEADER.length));
+    }
+
+    private static byte[][] words(final String separator) {
+        final byte[][] words = new byte[WORDS.length][];
+        for (int i = 0; i < WORDS.length; i++)
+            words[i] = (WORDS[i] + separator).getBytes(StandardCharsets.US_ASCII);
+        return words;
+    }
+
+    /**
+     * Returns the number of files.
+     * @return Number of files
+     */
+    int files() {
+        return sizes.length;
+    }
+
+    /**
+     * Returns the bytes written of the given contents, so far.
+     * @param content Contents
+     * @return Number of bytes
+     */
+    long bytes(final Content content) {
+        return bytes[content.ordinal()].sum();
+    }
+
+    /**
+     * The SplitMix64 generator, as in {@link java.util.SplittableRandom}, but with its algorithm fixed here.
+     */
+    private static final class SplitMix64 {
+        private long state;
+
+        SplitMix64(final long seed) {
+            this.state = seed;
+        }
+
+        long next() {
+            long z = (state += GOLDEN_GAMMA);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
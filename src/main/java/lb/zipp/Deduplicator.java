@@ -0,0 +1,158 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds input files with identical contents, so that each distinct content is compressed only once.
+ * <p>
+ * Files are first told apart by size, which costs nothing. Only when a second file of the same size turns up
+ * are the files hashed, with SHA-256, and files of equal size and digest are taken to be identical.
+ * The first file of each content is the original, which is compressed as usual; the others are duplicates,
+ * whose entries reuse the original's compressed data.
+ * <p>
+ * Originals are represented by futures of their written entries, so a duplicate may be found while its
+ * original is still being compressed. All methods are thread safe.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class Deduplicator {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ConcurrentMap<Long, Candidate> firstOfSize = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ContentKey, CompletableFuture<ArchiveEntry>> originals = new ConcurrentHashMap<>();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder duplicateBytes = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+
+    /**
+     * The first file of a given size, which is only hashed once another file of that size turns up.
+     */
+    private final class Candidate {
+        final Path file;
+        final long size;
+        final CompletableFuture<ArchiveEntry> entry;
+        private boolean registered;
+
+        Candidate(final Path file, final long size, final CompletableFuture<ArchiveEntry> entry) {
+            this.file = file;
+            this.size = size;
+            this.entry = entry;
+        }
+
+        /**
+         * Hashes the file, once, and registers it as the original of its content.
+         */
+        synchronized void register() throws IOException {
+            if (!registered) {
+                originals.putIfAbsent(new ContentKey(size, digest(file)), entry);
+                registered = true;
+            }
+        }
+    }
+
+    /**
+     * Size and digest of a file's contents.
+     */
+    private static final class ContentKey {
+        final long size;
+        final byte[] digest;
+
+        ContentKey(final long size, final byte[] digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof ContentKey && ((ContentKey) o).size == size
+                    && Arrays.equals(((ContentKey) o).digest, digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Arrays.hashCode(digest);
+        }
+    }
+
+    /**
+     * Finds the original of the given file's contents. If there is none, the given file becomes the original,
+     * and the given future must eventually be completed with its written entry, or exceptionally.
+     * @param file Path of file
+     * @param size Size of file
+     * @param entry Future entry of the file, should it be the original
+     * @return Future entry of the original, or null if the given file is the original
+     * @throws IOException Thrown on any underlying IO errors while hashing
+     */
+    CompletableFuture<ArchiveEntry> findOriginal(final Path file, final long size,
+                                                 final CompletableFuture<ArchiveEntry> entry) throws IOException {
+        final Candidate first = firstOfSize.putIfAbsent(size, new Candidate(file, size, entry));
+        if (first == null)
+            return null;
+        first.register();
+        final CompletableFuture<ArchiveEntry> original = originals.putIfAbsent(new ContentKey(size, digest(file)), entry);
+        if (original != null) {
+            duplicates.increment();
+            duplicateBytes.add(size);
+        }
+        return original;
+    }
+
+    private byte[] digest(final Path file) throws IOException {
+        final long start = THREADS.getCurrentThreadCpuTime();
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Required of every Java platform
+        }
+        final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        hashNanos.add(THREADS.getCurrentThreadCpuTime() - start);
+        return digest.digest();
+    }
+
+    /**
+     * Returns the number of duplicates found.
+     * @return Number of duplicate files
+     */
+    long duplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Returns the total size of the duplicates found, i.e. the number of bytes not compressed.
+     * @return Number of bytes
+     */
+    long duplicateBytes() {
+        return duplicateBytes.sum();
+    }
+
+    /**
+     * Returns the CPU time spent hashing files.
+     * @return CPU time, in nanoseconds
+     */
+    long hashNanos() {
+        return hashNanos.sum();
+    }
+}
@@ -0,0 +1,66 @@
+package lb.zipp;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * The deflate method, at a given compression level. Compressed data is deflated straight into the
+ * {@link EntryBuffer}.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class DeflateCodec implements Codec {
+    private final int level;
+
+    /**
+     * Creates a deflate codec.
+     * @param level Compression level, 0-9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    DeflateCodec(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * Returns the compression level.
+     * @return Compression level, 0-9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    int level() {
+        return level;
+    }
+
+    @Override
+    public String toString() {
+        return "deflate-" + level;
+    }
+
+    @Override
+    public int method() {
+        return ZipFormat.DEFLATED;
+    }
+
+    @Override
+    public Encoder newEncoder(final EntryBuffer out) {
+        final Deflater deflater = new Deflater(level, true);
+        return new Encoder() {
+            @Override
+            public void update(final ByteBuffer chunk) {
+                deflater.setInput(chunk);
+                while (!deflater.needsInput())
+                    out.deflate(deflater, Deflater.NO_FLUSH);
+            }
+
+            @Override
+            public void finish() {
+                deflater.finish();
+                while (!deflater.finished())
+                    out.deflate(deflater, Deflater.NO_FLUSH);
+            }
+
+            @Override
+            public void end() {
+                deflater.end();
+            }
+        };
+    }
+}
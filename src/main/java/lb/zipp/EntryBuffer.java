@@ -0,0 +1,225 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Growable buffer holding the compressed data of one entry until the
+ * {@link ZipWriter} appends it to the archive.
+ * <p>
+ * Data is kept in a list of chunks, so entries larger than 2 GB can be held and no
+ * copying takes place when the buffer grows. Chunks start small and double in size up to 1 MB,
+ * so that small entries occupy little memory while waiting to be written.
+ * <p>
+ * Chunks are reserved from a {@link MemoryBudget}. When the budget is used up, all further data
+ * is written to a temporary spill file instead, which is deleted when the buffer is released.
+ * <p>
+ * A {@link Deflater} may {@link #deflate(Deflater, int) deflate} straight into the buffer's chunks, so that
+ * compressed data is never copied on the heap.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class EntryBuffer extends OutputStream implements EntryData {
+    private static final int MIN_CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    private final MemoryBudget budget;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int pos;
+    private long size;
+    private long reserved;
+    private Path spillFile;
+    private FileChannel spill;
+    private long spilled;
+    private ByteBuffer spillBuffer;
+
+    /**
+     * Creates a buffer without memory limit.
+     */
+    EntryBuffer() {
+        this(MemoryBudget.unlimited());
+    }
+
+    /**
+     * Creates a buffer within the given budget.
+     * @param budget Memory budget
+     * @see MemoryBudget#newBuffer()
+     */
+    EntryBuffer(final MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void write(final int b) {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) {
+        size += len;
+        while (len > 0) {
+            if (spill != null) {
+                writeSpill(b, off, len);
+                return;
+            }
+            if (current == null || pos == current.length) {
+                if (!newChunk())
+                    continue; // Now spilling
+            }
+            final int n = Math.min(len, current.length - pos);
+            System.arraycopy(b, off, current, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Deflates pending output of the given deflater directly into this buffer, i.e. into the free space of
+     * the current chunk, or through a direct buffer into the spill file.
+     * @param deflater Deflater with pending input, or being finished
+     * @param flush Flush mode, as for {@link Deflater#deflate(byte[], int, int, int)}
+     * @return true if all the space offered was filled, so that more output may be pending
+     */
+    boolean deflate(final Deflater deflater, final int flush) {
+        if (spill == null && (current == null || pos == current.length))
+            newChunk();
+        final int n;
+        final boolean full;
+        if (spill != null) {
+            if (spillBuffer == null)
+                spillBuffer = ByteBuffer.allocateDirect(SPILL_BUFFER_SIZE);
+            spillBuffer.clear();
+            n = deflater.deflate(spillBuffer, flush);
+            full = !spillBuffer.hasRemaining();
+            spillBuffer.flip();
+            writeSpill(spillBuffer);
+        } else {
+            n = deflater.deflate(current, pos, current.length - pos, flush);
+            pos += n;
+            full = pos == current.length;
+        }
+        size += n;
+        return full;
+    }
+
+    /**
+     * Adds a new chunk, if the budget allows; otherwise starts spilling.
+     * @return true if a chunk was added
+     */
+    private boolean newChunk() {
+        final int chunkSize = current == null ? MIN_CHUNK_SIZE : Math.min(2 * current.length, MAX_CHUNK_SIZE);
+        if (!budget.tryReserve(chunkSize)) {
+            startSpill();
+            return false;
+        }
+        reserved += chunkSize;
+        current = new byte[chunkSize];
+        chunks.add(current);
+        pos = 0;
+        return true;
+    }
+
+    private void startSpill() {
+        try {
+            spillFile = budget.spillDirectory() == null
+                    ? Files.createTempFile("zipp", ".spill")
+                    : Files.createTempFile(budget.spillDirectory(), "zipp", ".spill");
+            spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeSpill(final byte[] b, final int off, final int len) {
+        writeSpill(ByteBuffer.wrap(b, off, len));
+    }
+
+    private void writeSpill(final ByteBuffer bb) {
+        try {
+            while (bb.hasRemaining())
+                spilled += spill.write(bb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to this buffer.
+     * @return Size in bytes
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Writes the entire contents of this buffer to the given channel.
+     * @param out Target channel
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    @Override
+    public void writeTo(final WritableByteChannel out) throws IOException {
+        long remaining = size - spilled;
+        for (byte[] chunk : chunks) {
+            final ByteBuffer bb = ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, remaining));
+            remaining -= bb.remaining();
+            while (bb.hasRemaining())
+                out.write(bb);
+        }
+        if (spill != null)
+            new ChannelRegion(spill, 0, spilled).writeTo(out);
+    }
+
+    /**
+     * Appends the entire contents of this buffer to the given stream, typically another buffer.
+     * @param out Target stream
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    void writeTo(final OutputStream out) throws IOException {
+        long remaining = size - spilled;
+        for (byte[] chunk : chunks) {
+            final int n = (int) Math.min(chunk.length, remaining);
+            out.write(chunk, 0, n);
+            remaining -= n;
+        }
+        if (spill != null)
+            new ChannelRegion(spill, 0, spilled).writeTo(Channels.newChannel(out));
+    }
+
+    /**
+     * Drops all buffered data, returning its memory to the budget and deleting any spill file.
+     */
+    @Override
+    public void release() {
+        chunks.clear();
+        current = null;
+        spillBuffer = null;
+        budget.release(reserved);
+        reserved = 0;
+        if (spill != null) {
+            try {
+                spill.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // Ignore; the file is deleted on close where supported
+            }
+            spill = null;
+        }
+    }
+}
@@ -0,0 +1,628 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the contents of one file into an {@link ArchiveEntry}, ready to be appended by a
+ * {@link ZipWriter}. Instances are stateless and may be shared by all worker threads.
+ * <p>
+ * In adaptive mode, the compressor first {@link #decide(Path) decides} whether a file is worth deflating,
+ * from its extension or from how well a sample of its contents deflates, and stores it otherwise.
+ * <p>
+ * Files are read through NIO: large files are memory-mapped, and the mapped buffers are deflated directly
+ * into the entry's {@link EntryBuffer}. Stored files are not buffered at all, but copied from the file to the
+ * archive by the writer; see {@link FileRegion}.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class EntryCompressor {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Largest chunk handed from the reading to the compressing stage */
+    private static final int READ_SIZE = 1 << 20;
+
+    /** Smallest chunk read, e.g. when checking for the end of a file */
+    private static final int MIN_READ_SIZE = 8 * 1024;
+
+    /** Size of the prefix sampled to estimate the compression ratio */
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    /** Extensions of file types which are already compressed */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "7z", "apk", "avi", "bz2", "docx", "ear", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg",
+            "lz4", "lzma", "m4a", "m4v", "mkv", "mov", "mp3", "mp4", "odp", "ods", "odt", "ogg", "png",
+            "pptx", "rar", "tbz2", "tgz", "txz", "war", "webm", "webp", "xlsx", "xz", "z", "zip", "zst"));
+
+    private final Codec codec;
+    private final BlockDeflater blockDeflater;
+    private final long blockThreshold;
+    private final boolean adaptive;
+    private final double storeThreshold;
+    private final MemoryBudget budget;
+    private final Metrics metrics;
+
+    /**
+     * The compression method chosen for a file, and why.
+     */
+    static final class Decision {
+        final int method;
+        final String reason;
+
+        Decision(final int method, final String reason) {
+            this.method = method;
+            this.reason = reason;
+        }
+    }
+
+    private static final Decision ALWAYS_STORE = new Decision(ZipFormat.STORED, null);
+
+    private final Decision always;
+
+    /**
+     * Creates a compressor which deflates each file as a single stream.
+     */
+    EntryCompressor() {
+        this(new DeflateCodec(Deflater.DEFAULT_COMPRESSION), null, Long.MAX_VALUE, false, 0,
+                MemoryBudget.unlimited(), new Metrics());
+    }
+
+    /**
+     * Creates a compressor.
+     * @param codec Codec compressing the files, or null to store all files
+     * @param blockDeflater Block deflater, or null to always deflate as a single stream
+     * @param blockThreshold Minimum file size for block-parallel compression
+     * @param adaptive If true, files estimated to deflate poorly are stored
+     * @param storeThreshold Estimated space saving, in percent, below which a file is stored in adaptive mode
+     * @param budget Memory budget for the compressed data
+     * @param metrics Metrics recording the time spent reading and compressing
+     */
+    EntryCompressor(final Codec codec, final BlockDeflater blockDeflater, final long blockThreshold,
+                    final boolean adaptive, final double storeThreshold, final MemoryBudget budget,
+                    final Metrics metrics) {
+        this.codec = codec;
+        this.always = codec == null ? ALWAYS_STORE : new Decision(codec.method(), null);
+        this.blockDeflater = blockDeflater;
+        this.blockThreshold = blockThreshold;
+        this.adaptive = adaptive;
+        this.storeThreshold = storeThreshold;
+        this.budget = budget;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Decides how to compress the given file. Unless in adaptive mode, files are always compressed with
+     * the codec, or stored if there is none. In adaptive mode, files with a known compressed file type extension are stored; otherwise a prefix
+     * sample is deflated, and the file is stored if the sample's space saving is below the store threshold.
+     * @param f Path of file
+     * @return Method to use, and the reason (null if not in adaptive mode)
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    Decision decide(final Path f) throws IOException {
+        if (!adaptive || codec == null)
+            return always;
+        final Decision byExtension = decideByExtension(f);
+        if (byExtension != null)
+            return byExtension;
+
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        final int n;
+        try (InputStream in = Files.newInputStream(f)) {
+            n = readFully(in, sample);
+        }
+        return decideBySample(sample, n);
+    }
+
+    /**
+     * Reads from a stream until the array is full, or the stream ends.
+     * @return Number of bytes read, less than the array's length only at the end of the stream
+     */
+    private static int readFully(final InputStream in, final byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            final int r = in.read(b, n, b.length - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        return n;
+    }
+
+    /**
+     * Decides how to compress the given file, already read, as {@link #decide(Path)} does, but sampling
+     * the data given instead of reading the file again.
+     * @param f Path of file
+     * @param data Contents of the file
+     * @param length Length of the contents
+     * @return Method to use, and the reason (null if not in adaptive mode)
+     */
+    Decision decide(final Path f, final byte[] data, final int length) {
+        if (!adaptive || codec == null)
+            return always;
+        final Decision byExtension = decideByExtension(f);
+        return byExtension != null ? byExtension : decideBySample(data, Math.min(length, SAMPLE_SIZE));
+    }
+
+    /**
+     * Decides to store a file with a known compressed file type extension.
+     * @return Decision, or null if the extension is not known
+     */
+    private static Decision decideByExtension(final Path f) {
+        final String fileName = f.getFileName().toString();
+        final int dot = fileName.lastIndexOf('.');
+        if (dot > 0) {
+            final String extension = fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+            if (COMPRESSED_EXTENSIONS.contains(extension))
+                return new Decision(ZipFormat.STORED,
+                        String.format(Message.getMessage(Message.rsnext), extension));
+        }
+        return null;
+    }
+
+    /**
+     * Decides how to compress a file from how well a sample of it deflates.
+     */
+    private Decision decideBySample(final byte[] sample, final int n) {
+        if (n == 0)
+            return always;
+        final double saving = (n - deflatedSize(sample, n)) * 100.0 / n;
+        final String reason = String.format(Message.getMessage(Message.rsnsmpl), saving);
+        return new Decision(saving < storeThreshold ? ZipFormat.STORED : codec.method(), reason);
+    }
+
+    /**
+     * Deflates a sample, at the codec's level if deflating, as an estimate of how well it compresses.
+     */
+    private long deflatedSize(final byte[] b, final int length) {
+        final Deflater deflater = new Deflater(codec instanceof DeflateCodec
+                ? ((DeflateCodec) codec).level() : Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(b, 0, length);
+            deflater.finish();
+            final byte[] buf = new byte[BUFFER_SIZE];
+            while (!deflater.finished())
+                deflater.deflate(buf);
+            return deflater.getBytesWritten();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads and compresses the given file with the codec, or stores it if there is none. Empty files are
+     * stored, as compressing them only adds overhead. Files of at least the block threshold size are
+     * deflated in parallel blocks.
+     * @param f Path of file to compress
+     * @param entryName Name of the resulting zip entry
+     * @return Entry, holding the compressed data
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    ArchiveEntry compress(final Path f, final String entryName) throws IOException {
+        return compress(f, entryName, always.method);
+    }
+
+    /**
+     * Reads and compresses the given file, using the given method, on the calling thread.
+     * @param f Path of file to compress
+     * @param entryName Name of the resulting zip entry
+     * @param method The codec's method, or {@link ZipFormat#STORED}
+     * @return Entry, holding the compressed data
+     * @throws IOException Thrown on any underlying IO errors
+     * @see #compress(Path, String)
+     */
+    ArchiveEntry compress(final Path f, final String entryName, final int method) throws IOException {
+        try {
+            return compressAsync(f, entryName, method, Runnable::run).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the given file on the calling thread, and compresses it, using the given method, on the given
+     * executor. The file is read in chunks of up to 1 MB, each handed to the executor as soon as it has been
+     * read, so that reading (I/O) and compression (CPU) proceed in parallel, on separate threads.
+     * Whole 1 MB chunks are memory-mapped, and loaded into memory by the reading thread; smaller chunks
+     * are read into heap buffers. Chunks are reserved from the memory budget until compressed, so reading
+     * cannot run far ahead.
+     * <p>
+     * Files of at least the block threshold size are instead deflated in parallel blocks, and this method
+     * returns only when done.
+     * @param f Path of file to compress
+     * @param entryName Name of the resulting zip entry
+     * @param method The codec's method, or {@link ZipFormat#STORED}
+     * @param cpu Executor for the compression
+     * @return Future entry, holding the compressed data
+     * @throws IOException Thrown on any underlying IO errors while reading
+     */
+    CompletableFuture<ArchiveEntry> compressAsync(final Path f, final String entryName, final int method,
+                                                  final Executor cpu) throws IOException {
+        final long[] timing = Metrics.timing();
+        final long start = System.nanoTime();
+        final BasicFileAttributes attrs = Files.readAttributes(f, BasicFileAttributes.class);
+        metrics.record(Metrics.Phase.STAT, start, timing);
+        return compressAsync(f, attrs, timing, entryName, method, cpu);
+    }
+
+    /**
+     * Reads the given file on the calling thread, and compresses it, as {@link #compressAsync(Path, String, int,
+     * Executor)}, given its attributes, as already read by the caller.
+     * @param f Path of file to compress
+     * @param attrs Attributes of the file
+     * @param timing Phase times of the entry so far, e.g. of reading the attributes
+     * @param entryName Name of the resulting zip entry
+     * @param method The codec's method, or {@link ZipFormat#STORED}
+     * @param cpu Executor for the compression
+     * @return Future entry, holding the compressed data
+     * @throws IOException Thrown on any underlying IO errors while reading
+     */
+    CompletableFuture<ArchiveEntry> compressAsync(final Path f, final BasicFileAttributes attrs, final long[] timing,
+                                                  final String entryName, final int method,
+                                                  final Executor cpu) throws IOException {
+        final long dosTime = ZipFormat.javaToDosTime(attrs.lastModifiedTime().toMillis());
+        final EntryBuffer out = budget.newBuffer();
+
+        if (method == ZipFormat.DEFLATED && blockDeflater != null && attrs.size() >= blockThreshold) {
+            try (FileChannel in = FileChannel.open(f, StandardOpenOption.READ)) {
+                final long deflateStart = System.nanoTime();
+                final BlockDeflater.Result result = blockDeflater.deflate(in, out);
+                metrics.record(Metrics.Phase.COMPRESS, deflateStart, timing); // Including the reads of the blocks
+                return CompletableFuture.completedFuture(new ArchiveEntry(entryName, ZipFormat.DEFLATED,
+                        result.crc, result.size, out.size(), dosTime, out).timed(timing));
+            } catch (IOException | RuntimeException e) {
+                out.release();
+                throw e;
+            }
+        }
+
+        final Compression compression = newCompression(f, attrs.lastModifiedTime(),
+                method == ZipFormat.STORED ? null : codec, out, timing);
+        final FileChannel in;
+        try {
+            in = FileChannel.open(f, StandardOpenOption.READ);
+        } catch (IOException | RuntimeException e) {
+            compression.end(true);
+            throw e;
+        }
+        try (in) {
+            return pipeline(compression, new ChunkReader() {
+                private long position;
+
+                @Override
+                public int nextLength() throws IOException {
+                    return (int) Math.max(MIN_READ_SIZE, Math.min(READ_SIZE, in.size() - position));
+                }
+
+                @Override
+                public ByteBuffer read(final int length) throws IOException {
+                    final ByteBuffer chunk = length == READ_SIZE ? map(in, position, length)
+                            : EntryCompressor.read(in, position, length);
+                    position += chunk.remaining();
+                    return chunk;
+                }
+            }, entryName, dosTime, cpu);
+        }
+    }
+
+    /**
+     * Reads a small file whole, with a single read for files of up to the size given, into a new array.
+     * @param f Path of file
+     * @param size Size of the file, as last seen
+     * @return Contents, of at most the given size; shorter if the file has shrunk since
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    static byte[] readSmall(final Path f, final int size) throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(size);
+        try (FileChannel in = FileChannel.open(f, StandardOpenOption.READ)) {
+            while (data.hasRemaining() && in.read(data) >= 0) {
+                // Usually a single read
+            }
+        }
+        return data.hasRemaining() ? Arrays.copyOf(data.array(), data.position()) : data.array();
+    }
+
+    /**
+     * Compresses data already read, e.g. a small file, whole, on the calling thread, using the given method.
+     * The data is checksummed and compressed from the array, without any pipelining, and the entry's data
+     * buffered, also when stored, so that the file is not opened again when written.
+     * @param data Data to compress
+     * @param entryName Name of the resulting zip entry
+     * @param dosTime Modification time of the entry, in MS-DOS format
+     * @param method The codec's method, or {@link ZipFormat#STORED}
+     * @param timing Phase times of the entry, so far, to add the compression time to
+     * @return Entry, holding the compressed data
+     * @throws IOException Thrown on any underlying IO errors while compressing
+     */
+    ArchiveEntry compress(final byte[] data, final String entryName, final long dosTime, final int method,
+                          final long[] timing) throws IOException {
+        final Compression compression = newCompression(null, null, method == ZipFormat.STORED ? null : codec,
+                budget.newBuffer(), timing);
+        boolean failed = true;
+        try {
+            final ArchiveEntry entry = compression.update(ByteBuffer.wrap(data)).finish(entryName, dosTime);
+            failed = false;
+            return entry;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        } finally {
+            compression.end(failed);
+        }
+    }
+
+    /**
+     * Reads the given channel to its end, on the calling thread, and compresses its data, with the codec, on
+     * the given executor. The channel is read in chunks of 1 MB, into heap buffers, each reserved from the
+     * memory budget until compressed. Without a codec, the data is stored, buffered in the entry's data.
+     * @param in Channel to read; not closed by this method
+     * @param entryName Name of the resulting zip entry
+     * @param dosTime Modification time of the entry, in MS-DOS format
+     * @param cpu Executor for the compression
+     * @return Future entry, holding the compressed data
+     * @throws IOException Thrown on any underlying IO errors while reading
+     */
+    CompletableFuture<ArchiveEntry> compressAsync(final ReadableByteChannel in, final String entryName,
+                                                  final long dosTime, final Executor cpu) throws IOException {
+        return pipeline(newCompression(null, null, codec, budget.newBuffer(), Metrics.timing()), new ChunkReader() {
+            @Override
+            public int nextLength() {
+                return READ_SIZE;
+            }
+
+            @Override
+            public ByteBuffer read(final int length) throws IOException {
+                final ByteBuffer chunk = ByteBuffer.allocate(length);
+                while (chunk.hasRemaining() && in.read(chunk) >= 0) {
+                    // Fill the chunk, unless at the end
+                }
+                return chunk.flip();
+            }
+        }, entryName, dosTime, cpu);
+    }
+
+    /**
+     * Compresses the given data, with the codec, on the given executor, in chunks of at most 1 MB, which are
+     * slices of the data, i.e. not copied. The caller must not modify the data until the entry is complete.
+     * @param data Data to compress, from its position to its limit; its position is not changed
+     * @param entryName Name of the resulting zip entry
+     * @param dosTime Modification time of the entry, in MS-DOS format
+     * @param cpu Executor for the compression
+     * @return Future entry, holding the compressed data
+     * @throws IOException Thrown if interrupted while waiting for the memory budget
+     */
+    CompletableFuture<ArchiveEntry> compressAsync(final ByteBuffer data, final String entryName,
+                                                  final long dosTime, final Executor cpu) throws IOException {
+        final ByteBuffer remaining = data.duplicate();
+        return pipeline(newCompression(null, null, codec, budget.newBuffer(), Metrics.timing()), new ChunkReader() {
+            @Override
+            public int nextLength() {
+                return Math.max(MIN_READ_SIZE, Math.min(READ_SIZE, remaining.remaining()));
+            }
+
+            @Override
+            public ByteBuffer read(final int length) {
+                final ByteBuffer chunk = remaining.slice();
+                chunk.limit(Math.min(length, chunk.remaining()));
+                remaining.position(remaining.position() + chunk.remaining());
+                return chunk;
+            }
+        }, entryName, dosTime, cpu);
+    }
+
+    /**
+     * Creates the state of compressing one entry, releasing the buffer on failure.
+     */
+    private Compression newCompression(final Path file, final FileTime lastModified, final Codec codec,
+                                       final EntryBuffer out, final long[] timing) throws IOException {
+        try {
+            return new Compression(file, lastModified, codec, out, metrics, timing);
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads chunks of one entry's data, on the calling thread.
+     */
+    private interface ChunkReader {
+        /**
+         * Returns the length of the next chunk to read.
+         */
+        int nextLength() throws IOException;
+
+        /**
+         * Reads the next chunk, of at most the given length. A shorter chunk ends the data.
+         */
+        ByteBuffer read(int length) throws IOException;
+    }
+
+    /**
+     * Reads all chunks on the calling thread, handing each to the executor as soon as it has been read, and
+     * compresses them there, in order. Chunks are reserved from the memory budget until compressed.
+     * On failure, the compression is ended, and its buffer released, once any chunks in flight are done.
+     */
+    private CompletableFuture<ArchiveEntry> pipeline(final Compression compression, final ChunkReader reader,
+                                                     final String entryName, final long dosTime,
+                                                     final Executor cpu) throws IOException {
+        CompletableFuture<Compression> stage = CompletableFuture.completedFuture(compression);
+        try {
+            while (true) {
+                final int length = reader.nextLength();
+                budget.reserve(length);
+                final ByteBuffer chunk;
+                final long start = System.nanoTime();
+                try {
+                    chunk = reader.read(length);
+                } catch (IOException | RuntimeException e) {
+                    budget.release(length);
+                    throw e;
+                }
+                metrics.record(Metrics.Phase.READ, start, compression.timing);
+                final int n = chunk.remaining();
+                if (n == 0) {
+                    budget.release(length);
+                    break;
+                }
+                metrics.enqueued(Metrics.Queue.COMPRESS, 1);
+                final CompletableFuture<Compression> next = stage.thenApplyAsync(c -> {
+                    metrics.dequeued(Metrics.Queue.COMPRESS);
+                    return c.update(chunk);
+                }, cpu);
+                next.whenComplete((c, e) -> budget.release(length));
+                stage = next;
+                if (n < length)
+                    break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stage.whenComplete((c, ex) -> compression.end(true));
+            throw new InterruptedIOException();
+        } catch (IOException | RuntimeException e) {
+            stage.whenComplete((c, ex) -> compression.end(true));
+            throw e;
+        }
+        final CompletableFuture<ArchiveEntry> result = stage.thenApplyAsync(c -> c.finish(entryName, dosTime), cpu);
+        result.whenComplete((entry, e) -> compression.end(e != null));
+        return result;
+    }
+
+    /**
+     * Maps a region of a file, and loads it into memory, so that the compressing thread does not
+     * wait for the disk.
+     */
+    static MappedByteBuffer map(final FileChannel in, final long position, final int length) throws IOException {
+        final MappedByteBuffer chunk = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+        chunk.load();
+        return chunk;
+    }
+
+    /**
+     * Reads a region of a file into a new heap buffer, ready to be consumed.
+     */
+    private static ByteBuffer read(final FileChannel in, long position, final int length) throws IOException {
+        final ByteBuffer chunk = ByteBuffer.allocate(length);
+        int n;
+        while (chunk.hasRemaining() && (n = in.read(chunk, position)) >= 0)
+            position += n;
+        chunk.flip();
+        return chunk;
+    }
+
+    /**
+     * The state of compressing one file, or other source, fed with one chunk at a time. Only one thread at a time
+     * may use an instance; consecutive chunks may be fed by different threads.
+     */
+    private static final class Compression {
+        private final Path file; // null unless compressing a file
+        private final FileTime lastModified; // Of the file, when read
+        private final int method;
+        private final Codec.Encoder encoder; // null when storing
+        private final EntryBuffer out;
+        private final CRC32 crc = new CRC32();
+        private final Metrics metrics;
+        final long[] timing;
+        private long size;
+
+        Compression(final Path file, final FileTime lastModified, final Codec codec, final EntryBuffer out,
+                    final Metrics metrics, final long[] timing) throws IOException {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.out = out;
+            this.metrics = metrics;
+            this.timing = timing;
+            method = codec == null ? ZipFormat.STORED : codec.method();
+            encoder = codec == null ? null : codec.newEncoder(out);
+        }
+
+        Compression update(final ByteBuffer chunk) {
+            final long start = System.nanoTime();
+            size += chunk.remaining();
+            crc.update(chunk.duplicate());
+            if (encoder != null) {
+                try {
+                    encoder.update(chunk);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            } else if (file == null) {
+                // Stored data of other sources cannot be copied when written, so is buffered
+                final byte[] b = new byte[chunk.remaining()];
+                chunk.get(b);
+                out.write(b, 0, b.length);
+            }
+            metrics.record(Metrics.Phase.COMPRESS, start, timing);
+            return this;
+        }
+
+        ArchiveEntry finish(final String entryName, final long dosTime) {
+            if (file == null && encoder == null && size > 0)
+                return new ArchiveEntry(entryName, ZipFormat.STORED, crc.getValue(), size, size, dosTime, out)
+                        .timed(timing);
+            if (encoder == null || size == 0) {
+                // The data of a stored file is copied straight from the file, when written, unless it has changed
+                out.release();
+                return new ArchiveEntry(entryName, ZipFormat.STORED, crc.getValue(), size, size, dosTime,
+                        size == 0 ? null : new FileRegion(file, size, lastModified)).timed(timing);
+            }
+            final long start = System.nanoTime();
+            try {
+                encoder.finish();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            metrics.record(Metrics.Phase.COMPRESS, start, timing);
+            return new ArchiveEntry(entryName, method, crc.getValue(), size, out.size(), dosTime, out).timed(timing);
+        }
+
+        /**
+         * Frees the encoder, and on failure also the compressed data.
+         */
+        void end(final boolean failed) {
+            if (encoder != null)
+                encoder.end();
+            if (failed)
+                out.release();
+        }
+    }
+
+    /**
+     * Computes the CRC-32 of the given file, without compressing it.
+     * @param f Path of file
+     * @return CRC-32 of the file contents
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    long checksum(final Path f) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(f)) {
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                crc.update(buf, 0, n);
+        }
+        return crc.getValue();
+    }
+}
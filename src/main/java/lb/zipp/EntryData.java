@@ -0,0 +1,31 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The (compressed) data of an {@link ArchiveEntry}, as appended to the archive by the {@link ZipWriter}.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+interface EntryData {
+
+    /**
+     * Returns the number of bytes of data.
+     * @return Size in bytes
+     */
+    long size();
+
+    /**
+     * Writes all data to the given channel.
+     * @param out Target channel
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    void writeTo(WritableByteChannel out) throws IOException;
+
+    /**
+     * Releases any resources held, once the data has been written.
+     */
+    void release();
+}
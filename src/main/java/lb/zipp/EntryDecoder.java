@@ -0,0 +1,204 @@
+package lb.zipp;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes the data of entries of an archive, and checks it against the entry's CRC and size.
+ * <p>
+ * Entry data is read with positional reads only, so any number of threads may decode entries concurrently,
+ * without shared seek state. The decoded data is written to a channel, or, when {@link #verify(ArchiveEntry)
+ * verifying}, discarded.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class EntryDecoder {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ZipReader reader;
+
+    /**
+     * Creates a decoder.
+     * @param reader Reader of the archive
+     */
+    EntryDecoder(final ZipReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Verifies one entry: checks that its local header agrees with the central directory, and decodes its
+     * data, checking its CRC and size, without writing it anywhere.
+     * @param entry Entry of the archive
+     * @throws IOException Thrown on any underlying IO errors, or if the entry is invalid
+     */
+    void verify(final ArchiveEntry entry) throws IOException {
+        decode(entry, reader.checkLocalHeader(entry), null);
+    }
+
+    /**
+     * Decodes the data of one entry, and checks its CRC and size.
+     * @param entry Entry of the archive
+     * @param offset Offset of the entry's data; see {@link ZipReader#dataOffset(ArchiveEntry)}
+     * @param out Receives the decoded data, or null to discard it
+     * @throws IOException Thrown on any underlying IO errors, or if the entry is invalid
+     */
+    void decode(final ArchiveEntry entry, final long offset, final WritableByteChannel out) throws IOException {
+        final CRC32 crc = new CRC32();
+        final long size;
+        switch (entry.method()) {
+            case ZipFormat.STORED:
+                size = copy(offset, entry.compressedSize(), crc, out);
+                break;
+            case ZipFormat.DEFLATED:
+                size = inflate(entry, offset, crc, out);
+                break;
+            case ZipFormat.ZSTD:
+                size = unzstd(entry, offset, crc, out);
+                break;
+            default:
+                throw new ZipException(String.format("Unsupported compression method %d of %s",
+                        entry.method(), entry.name()));
+        }
+        if (size != entry.size() || crc.getValue() != entry.crc())
+            throw new ZipException(String.format("Invalid size or CRC of %s", entry.name()));
+    }
+
+    private long copy(long position, final long length, final CRC32 crc, final WritableByteChannel out)
+            throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        final long end = position + length;
+        while (position < end) {
+            position += read(position, end, buf);
+            crc.update(buf.duplicate());
+            write(buf, out);
+        }
+        return length;
+    }
+
+    private long inflate(final ArchiveEntry entry, long position, final CRC32 crc, final WritableByteChannel out)
+            throws IOException {
+        final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        final long end = position + entry.compressedSize();
+        final Inflater inflater = new Inflater(true);
+        boolean padded = false;
+        long size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (position < end) {
+                        position += read(position, end, in);
+                    } else if (!padded) {
+                        // Without the zlib header, the inflater may need an extra byte to detect the end
+                        in.clear();
+                        in.put((byte) 0).flip();
+                        padded = true;
+                    } else {
+                        throw new ZipException("Unexpected end of data of " + entry.name());
+                    }
+                    inflater.setInput(in);
+                }
+                buf.clear();
+                final int n = inflater.inflate(buf);
+                if (n == 0 && inflater.needsDictionary())
+                    throw new ZipException("Invalid data of " + entry.name());
+                buf.flip();
+                crc.update(buf.duplicate());
+                write(buf, out);
+                size += n;
+            }
+            // The deflate stream must end exactly at the end of the compressed data, not counting the padding byte
+            final long consumed = inflater.getBytesRead() - (padded && inflater.getRemaining() == 0 ? 1 : 0);
+            if (consumed != entry.compressedSize())
+                throw new ZipException(String.format("Invalid compressed size of %s: %d bytes, of which %d used",
+                        entry.name(), entry.compressedSize(), consumed));
+        } catch (DataFormatException e) {
+            throw new ZipException(String.format("Invalid data of %s: %s", entry.name(), e.getMessage()));
+        } finally {
+            inflater.end();
+        }
+        return size;
+    }
+
+    private long unzstd(final ArchiveEntry entry, final long position, final CRC32 crc,
+                        final WritableByteChannel out) throws IOException {
+        final byte[] b = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream in = new ZstdInputStream(new Region(position, position + entry.compressedSize()))) {
+            int n;
+            while ((n = in.read(b)) >= 0) {
+                final ByteBuffer buf = ByteBuffer.wrap(b, 0, n);
+                crc.update(buf.duplicate());
+                write(buf, out);
+                size += n;
+            }
+        } catch (RuntimeException e) {
+            // The decoder signals corrupt input with unchecked exceptions
+            throw new ZipException(String.format("Invalid data of %s: %s", entry.name(), e.getMessage()));
+        }
+        return size;
+    }
+
+    /**
+     * The data of one entry, as a stream, read with positional reads.
+     */
+    private final class Region extends InputStream {
+        private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+        private long position;
+        private final long end;
+
+        Region(final long position, final long end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (!buf.hasRemaining()) {
+                if (position >= end)
+                    return -1;
+                position += EntryDecoder.this.read(position, end, buf);
+            }
+            final int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Fills the buffer from the archive, with a positional read of at most the bytes before the given end.
+     * @return Number of bytes read
+     */
+    private int read(final long position, final long end, final ByteBuffer buf) throws IOException {
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), end - position));
+        while (buf.hasRemaining()) {
+            if (reader.channel().read(buf, position + buf.position()) < 0)
+                throw new ZipException("Unexpected end of archive");
+        }
+        buf.flip();
+        return buf.remaining();
+    }
+
+    private static void write(final ByteBuffer buf, final WritableByteChannel out) throws IOException {
+        if (out == null)
+            return;
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+}
@@ -0,0 +1,77 @@
+package lb.zipp;
+
+/**
+ * Describes an entry added to a {@link ZipArchive}: its name, method, sizes and CRC, as written.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+public final class EntryStats {
+    private final String name;
+    private final ZipArchive.Method method;
+    private final long crc;
+    private final long size;
+    private final long compressedSize;
+
+    EntryStats(final ArchiveEntry entry) {
+        this.name = entry.name();
+        this.method = ZipArchive.Method.of(entry.method());
+        this.crc = entry.crc();
+        this.size = entry.size();
+        this.compressedSize = entry.compressedSize();
+    }
+
+    /**
+     * Returns the entry name.
+     * @return Entry name, using '/' as separator
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns the compression method of the entry, which is {@link ZipArchive.Method#STORE} for empty entries,
+     * and for entries stored in adaptive mode.
+     * @return Compression method
+     */
+    public ZipArchive.Method method() {
+        return method;
+    }
+
+    /**
+     * Returns the CRC-32 of the entry's uncompressed data.
+     * @return CRC-32
+     */
+    public long crc() {
+        return crc;
+    }
+
+    /**
+     * Returns the uncompressed size.
+     * @return Number of bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the compressed size, i.e. the size of the entry's data in the archive.
+     * @return Number of bytes
+     */
+    public long compressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Returns the space saved by compression.
+     * @return Saved space in percent of the uncompressed size
+     */
+    public double compression() {
+        return size == 0 ? 0 : (size - compressedSize) * 100.0 / size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s, %d -> %d bytes, %.0f%%)", name, method, size, compressedSize, compression());
+    }
+}
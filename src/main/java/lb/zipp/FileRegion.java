@@ -0,0 +1,80 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Entry data which is the unchanged contents of a file, e.g. the data of a stored entry, or of a
+ * {@link BlobCache cached} blob. Nothing is held in
+ * memory: the file is only opened when the entry is written, and copied to the archive with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * <p>
+ * The file must not change between computing its CRC and writing the entry. Where the file's modification time,
+ * as read, is given, its size and modification time are checked before and after copying, and writing fails if
+ * either has changed.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class FileRegion implements EntryData {
+    private final Path file;
+    private final long position;
+    private final long size;
+    private final FileTime lastModified; // null unless checked
+
+    /**
+     * Creates the data of the whole of the given file, as read.
+     * @param file Path of file
+     * @param size Size of the file, as read
+     * @param lastModified Modification time of the file, as read
+     */
+    FileRegion(final Path file, final long size, final FileTime lastModified) {
+        this.file = file;
+        this.position = 0;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Creates the data of a region of the given file, e.g. of a cached blob after its header.
+     * @param file Path of file
+     * @param position Position of the first byte
+     * @param size Number of bytes
+     */
+    FileRegion(final Path file, final long position, final long size) {
+        this.file = file;
+        this.position = position;
+        this.size = size;
+        this.lastModified = null;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void writeTo(final WritableByteChannel out) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            checkUnchanged(source);
+            new ChannelRegion(source, position, size).writeTo(out);
+            checkUnchanged(source);
+        }
+    }
+
+    private void checkUnchanged(final FileChannel source) throws IOException {
+        if (lastModified != null
+                && (source.size() != size || !Files.getLastModifiedTime(file).equals(lastModified)))
+            throw new IOException(String.format("%s has changed since it was read", file));
+    }
+
+    @Override
+    public void release() {
+        // Nothing held
+    }
+}
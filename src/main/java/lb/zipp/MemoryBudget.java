@@ -0,0 +1,94 @@
+package lb.zipp;
+
+import java.nio.file.Path;
+
+/**
+ * Limits the heap used for data in flight, i.e. for file blocks read but not yet compressed, and for
+ * compressed entries not yet written to the archive, across all workers.
+ * <p>
+ * Two policies apply when the budget is used up: workers about to start on a new entry, or to read another
+ * block, wait until the {@link ZipWriter} has released memory (backpressure), and {@link EntryBuffer}s
+ * which cannot grow within the budget continue in a temporary spill file instead.
+ * Waiting only ever happens while holding no reservation of one's own, or while holding reservations
+ * that are released without further reservations, so it cannot deadlock.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class MemoryBudget {
+    private final long limit;
+    private final Path spillDirectory;
+    private long used;
+
+    /**
+     * Creates a budget.
+     * @param limit Maximum number of bytes reserved at any time
+     * @param spillDirectory Directory for spill files
+     */
+    MemoryBudget(final long limit, final Path spillDirectory) {
+        this.limit = limit;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Creates a budget without limit.
+     * @return Unlimited budget
+     */
+    static MemoryBudget unlimited() {
+        return new MemoryBudget(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Returns a new, empty, buffer for compressed data, within this budget.
+     * @return New buffer
+     */
+    EntryBuffer newBuffer() {
+        return new EntryBuffer(this);
+    }
+
+    Path spillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Reserves the given number of bytes, if available.
+     * @param bytes Number of bytes
+     * @return true if reserved; false if that would exceed the limit
+     */
+    synchronized boolean tryReserve(final long bytes) {
+        if (used + bytes > limit)
+            return false;
+        used += bytes;
+        return true;
+    }
+
+    /**
+     * Reserves the given number of bytes, waiting for others to release memory if needed.
+     * A reservation larger than the limit is granted once nothing else is reserved.
+     * @param bytes Number of bytes
+     * @throws InterruptedException If interrupted while waiting
+     */
+    synchronized void reserve(final long bytes) throws InterruptedException {
+        while (used > 0 && used + bytes > limit)
+            wait();
+        used += bytes;
+    }
+
+    /**
+     * Waits until some of the budget is available, i.e. until fewer bytes than the limit are reserved.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    synchronized void awaitAvailable() throws InterruptedException {
+        while (used >= limit)
+            wait();
+    }
+
+    /**
+     * Releases bytes previously reserved.
+     * @param bytes Number of bytes
+     */
+    synchronized void release(final long bytes) {
+        used -= bytes;
+        notifyAll();
+    }
+}
@@ -16,7 +16,9 @@ import java.util.concurrent.ConcurrentMap;
 public enum Message {
     adding, updating, compressed, deflated, working,
     output, fszlmt, usage1, zpclos, zpdone, unkopt,
-    noargs, errtrav, cretemp, tstadd, tstclose, tsttotal, tstproc, zipdone0;
+    noargs, errtrav, cretemp, tstadd, tstclose, tsttotal, tstproc, zipdone0,
+    zpcmpct, rsnext, rsnsmpl, tstthru, extracting, zpxtrct,
+    vfyok, vfyfail, vfysum, rsndup, dedupd, zpmrgd, shardsd, tstwrkr, rsncache, cached, tstfiles, tstphase, tstqueue, ckptrsm, gendone;
 
     private static final Map<Message, String> DEFAULT = new HashMap<>();
     private static final Map<Message, String> DEUTSCH = new HashMap<>();
@@ -30,21 +32,42 @@ public enum Message {
         DEFAULT.put(updating, "  updating ");
         DEFAULT.put(compressed, "compressed");
         DEFAULT.put(deflated, "deflated");
-        DEFAULT.put(working, "Working on ZIP FileSystem %s, using the options '%s'%n");
+        DEFAULT.put(working, "Working on zip archive %s, using the options '%s'%n");
         DEFAULT.put(output, "Zip archive: ");
         DEFAULT.put(fszlmt, "File size limit: ");
-        DEFAULT.put(usage1, String.format("Usage: zipp %s zip_archive file [...]", Option.optionsSyntax()));
+        DEFAULT.put(usage1, String.format("Usage: zipp %s zip_archive file [...]%n       zipp -x [-p] zip_archive [directory]%n       zipp -m [--on-conflict=rule] zip_archive zip_file [...]", Option.optionsSyntax()));
         DEFAULT.put(zpclos, "All files/dirs entered, now closing...");
         DEFAULT.put(zipdone0, "Done!");
         DEFAULT.put(zpdone, "A zip archive of the given files/dirs has been created.");
         DEFAULT.put(unkopt, "Error: Unknown option ");
         DEFAULT.put(noargs, "Not enough arguments given!");
         DEFAULT.put(errtrav, "Error traversing directory %s");
-        DEFAULT.put(cretemp, "Creating %d temporary files, using %d processors (ignoring file args)%n");
+        DEFAULT.put(cretemp, "Creating %d temporary files, %d MB in total, %s sizes, seed %d, using %d processors (ignoring file args)%n");
+        DEFAULT.put(gendone, "Created in %d ms: %d MB text, %d MB random, %d MB packed%n");
         DEFAULT.put(tstadd, "Add: %d ms CPU in %d ms, ratio %f%n");
         DEFAULT.put(tstclose, "Close: %d ms CPU in %d ms, ratio %f%n");
+        DEFAULT.put(tstfiles, "Files: %d added, %.0f files/s, %.1f µs CPU per file%n");
         DEFAULT.put(tsttotal, "Total: %d ms CPU in %d ms, ratio %f%n");
         DEFAULT.put(tstproc, "Number of available processors is %d%n");
+        DEFAULT.put(tstwrkr, "Worker %s: busy %d ms (CPU %d ms), idle %d ms (%.0f%% busy)%n");
+        DEFAULT.put(tstphase, "Phase %-8s %8d ms in %d calls%n");
+        DEFAULT.put(tstqueue, "Queue peaks: %d chunks to compress, %d entries to write%n");
+        DEFAULT.put(tstthru, "Throughput: %.1f MB/s, %.1f MB per CPU second; garbage collection: %d times, %d ms%n");
+        DEFAULT.put(zpcmpct, "The archive has been compacted, reclaiming %d bytes.%n");
+        DEFAULT.put(rsnext, "compressed type .%s");
+        DEFAULT.put(rsnsmpl, "sample %.1f%%");
+        DEFAULT.put(extracting, "  extracting ");
+        DEFAULT.put(zpxtrct, "%d entries have been extracted to %s.%n");
+        DEFAULT.put(vfyok, "  OK %s (%.1f ms)%n");
+        DEFAULT.put(vfyfail, "  FAILED %s: %s%n");
+        DEFAULT.put(vfysum, "Verified %d entries: %d passed, %d failed, in %d ms.%n");
+        DEFAULT.put(rsncache, "cached");
+        DEFAULT.put(cached, "Cache: %d hits, %d misses, %d entries stored, %d bytes evicted.%n");
+        DEFAULT.put(ckptrsm, "Resuming from the checkpoint %s: %d entries have been added already.%n");
+        DEFAULT.put(rsndup, "duplicate of %s");
+        DEFAULT.put(dedupd, "Deduplicated %d files of %d bytes, saving about %d ms CPU (%d ms spent hashing).%n");
+        DEFAULT.put(shardsd, "%d shards have been written, of %d to %d bytes of files each; manifest: %s%n");
+        DEFAULT.put(zpmrgd, "%d entries from %d archives have been merged into %s; %d name conflicts resolved by rule %s.%n");
 
         BUNDLES.put("", DEFAULT);
 
@@ -52,20 +75,41 @@ public enum Message {
         DEUTSCH.put(updating, "  auktualisieren ");
         DEUTSCH.put(compressed, "komprimiert");
         DEUTSCH.put(deflated, "entleert");
-        DEUTSCH.put(working, "Arbeiten mit ZIP FileSystem %s, verwenden die Optionen '%s'%n");
+        DEUTSCH.put(working, "Arbeiten mit Zip-Archiv %s, verwenden die Optionen '%s'%n");
         DEUTSCH.put(output, "Zip-Archiv: ");
-        DEUTSCH.put(usage1, String.format("Gebrauch: zipp %s Zip-Archiv Datei [...]", Option.optionsSyntax()));
+        DEUTSCH.put(usage1, String.format("Gebrauch: zipp %s Zip-Archiv Datei [...]%n          zipp -x [-p] Zip-Archiv [Verzeichnis]%n          zipp -m [--on-conflict=Regel] Zip-Archiv Zip-Datei [...]", Option.optionsSyntax()));
         DEUTSCH.put(zpclos, "Alle Dateien registeiert; jetzt schliessen...");
         DEUTSCH.put(zipdone0, "Fertig!");
         DEUTSCH.put(zpdone, "Ein Zip-Archiv mit den angegebenen Dateien / Verzeichnisse ist gemacht.");
         DEUTSCH.put(unkopt, "Fehler: Unbekannte lb.zipp.Option");
         DEUTSCH.put(noargs, "Nicht genug parametern angegeben!");
         DEUTSCH.put(errtrav, "Fehler während lesen des Kataloges %s");
-        DEUTSCH.put(cretemp, "Schafft %d temporäre Dateien, durch %d procezzesoren verwenden (Datei-argumenten sind ignoriert geworden)%n");
+        DEUTSCH.put(cretemp, "Schafft %d temporäre Dateien, %d MB im Gesamt, %s Größen, Saat %d, durch %d procezzesoren verwenden (Datei-argumenten sind ignoriert geworden)%n");
+        DEUTSCH.put(gendone, "Geschafft in %d ms: %d MB Text, %d MB Zufall, %d MB gepackt%n");
         DEUTSCH.put(tstadd, "Addieren: %d ms CPU in %d ms, ratio %f%n");
         DEUTSCH.put(tstclose, "Schließen: %d ms CPU in %d ms, ratio %f%n");
+        DEUTSCH.put(tstfiles, "Dateien: %d addiert, %.0f Dateien/s, %.1f µs CPU pro Datei%n");
         DEUTSCH.put(tsttotal, "Im Gesamt: %d ms CPU in %d ms, ratio %f%n");
         DEUTSCH.put(tstproc, "Anzahl verfügbare procezzoren ist %d%n");
+        DEUTSCH.put(tstwrkr, "Arbeiter %s: beschäftigt %d ms (CPU %d ms), untätig %d ms (%.0f%% beschäftigt)%n");
+        DEUTSCH.put(tstphase, "Phase %-8s %8d ms in %d Aufrufen%n");
+        DEUTSCH.put(tstqueue, "Warteschlangen-Spitzen: %d Stücke zu komprimieren, %d Einträge zu schreiben%n");
+        DEUTSCH.put(tstthru, "Durchsatz: %.1f MB/s, %.1f MB pro CPU-Sekunde; Speicherbereinigung: %d Mal, %d ms%n");
+        DEUTSCH.put(zpcmpct, "Das Archiv ist verdichtet worden, %d Bytes zurückgewonnen.%n");
+        DEUTSCH.put(rsnext, "komprimierter Typ .%s");
+        DEUTSCH.put(rsnsmpl, "Stichprobe %.1f%%");
+        DEUTSCH.put(extracting, "  auspacken ");
+        DEUTSCH.put(zpxtrct, "%d Einträge sind nach %s ausgepackt worden.%n");
+        DEUTSCH.put(vfyok, "  OK %s (%.1f ms)%n");
+        DEUTSCH.put(vfyfail, "  FEHLER %s: %s%n");
+        DEUTSCH.put(vfysum, "%d Einträge geprüft: %d bestanden, %d fehlgeschlagen, in %d ms.%n");
+        DEUTSCH.put(rsncache, "zwischengespeichert");
+        DEUTSCH.put(cached, "Zwischenspeicher: %d Treffer, %d Fehlschläge, %d Einträge gespeichert, %d Bytes verdrängt.%n");
+        DEUTSCH.put(ckptrsm, "Fortsetzung vom Prüfpunkt %s: %d Einträge sind schon addiert worden.%n");
+        DEUTSCH.put(rsndup, "Duplikat von %s");
+        DEUTSCH.put(dedupd, "%d Dateien mit %d Bytes dedupliziert, etwa %d ms CPU gespart (%d ms zum Hashen verwendet).%n");
+        DEUTSCH.put(shardsd, "%d Teilarchive sind geschrieben worden, mit je %d bis %d Bytes an Dateien; Manifest: %s%n");
+        DEUTSCH.put(zpmrgd, "%d Einträge aus %d Archiven sind in %s zusammengeführt worden; %d Namenskonflikte nach Regel %s gelöst.%n");
 
         BUNDLES.put(Locale.GERMAN.getLanguage(), DEUTSCH);
 
@@ -73,20 +117,41 @@ public enum Message {
         SVENSKA.put(updating, "  updaterar ");
         SVENSKA.put(compressed, "komprimerat");
         SVENSKA.put(deflated, "hopslaget");
-        SVENSKA.put(working, "Arbetar på ZIP FileSystem %s, med väljarna '%s'%n");
+        SVENSKA.put(working, "Arbetar på zip-arkiv %s, med väljarna '%s'%n");
         SVENSKA.put(output, "Zip-arkiv: ");
-        SVENSKA.put(usage1, String.format("Användning: zipp %s zip-arkiv fil [...]", Option.optionsSyntax()));
+        SVENSKA.put(usage1, String.format("Användning: zipp %s zip-arkiv fil [...]%n            zipp -x [-p] zip-arkiv [katalog]%n            zipp -m [--on-conflict=regel] zip-arkiv zip-fil [...]", Option.optionsSyntax()));
         SVENSKA.put(zpclos, "Alla filer/kataloger processade, stänger arkivet...");
         SVENSKA.put(zipdone0, "Klart!");
         SVENSKA.put(zpdone, "Ett zip-arkiv av angivna filer/kataloger har skapats.");
         SVENSKA.put(unkopt, "Fel: okänd väljare ");
         SVENSKA.put(noargs, "Inte tillräckligt antal parametrar!");
         SVENSKA.put(errtrav, "Fel under katalogläsning av %s");
-        SVENSKA.put(cretemp, "Skapar %d temporära filer, m.h.a. %d processorer (ignorerar fil-argument) %n");
+        SVENSKA.put(cretemp, "Skapar %d temporära filer, %d MB totalt, %s storlekar, frö %d, m.h.a. %d processorer (ignorerar fil-argument) %n");
+        SVENSKA.put(gendone, "Skapade på %d ms: %d MB text, %d MB slumpdata, %d MB packat%n");
         SVENSKA.put(tstadd, "Addera: %d ms CPU på %d ms, ratio %f%n");
         SVENSKA.put(tstclose, "Stänga: %d ms CPU på %d ms, ratio %f%n");
+        SVENSKA.put(tstfiles, "Filer: %d adderade, %.0f filer/s, %.1f µs CPU per fil%n");
         SVENSKA.put(tsttotal, "Total: %d ms CPU på %d ms, ratio %f%n");
         SVENSKA.put(tstproc, "Antal tillgängliga processorer är %d%n");
+        SVENSKA.put(tstwrkr, "Arbetare %s: upptagen %d ms (CPU %d ms), ledig %d ms (%.0f%% upptagen)%n");
+        SVENSKA.put(tstphase, "Fas %-8s %8d ms på %d anrop%n");
+        SVENSKA.put(tstqueue, "Kötoppar: %d bitar att komprimera, %d poster att skriva%n");
+        SVENSKA.put(tstthru, "Genomströmning: %.1f MB/s, %.1f MB per CPU-sekund; skräpsamling: %d gånger, %d ms%n");
+        SVENSKA.put(zpcmpct, "Arkivet har packats om, %d byte har frigjorts.%n");
+        SVENSKA.put(rsnext, "komprimerad typ .%s");
+        SVENSKA.put(rsnsmpl, "stickprov %.1f%%");
+        SVENSKA.put(extracting, "  packar upp ");
+        SVENSKA.put(zpxtrct, "%d poster har packats upp till %s.%n");
+        SVENSKA.put(vfyok, "  OK %s (%.1f ms)%n");
+        SVENSKA.put(vfyfail, "  FEL %s: %s%n");
+        SVENSKA.put(vfysum, "%d poster kontrollerade: %d godkända, %d underkända, på %d ms.%n");
+        SVENSKA.put(rsncache, "cachad");
+        SVENSKA.put(cached, "Cache: %d träffar, %d missar, %d poster sparade, %d byte utträngda.%n");
+        SVENSKA.put(ckptrsm, "Återupptar från kontrollpunkten %s: %d poster har redan adderats.%n");
+        SVENSKA.put(rsndup, "dubblett av %s");
+        SVENSKA.put(dedupd, "%d filer med %d byte deduplicerade, cirka %d ms CPU sparad (%d ms använd för hashning).%n");
+        SVENSKA.put(shardsd, "%d delarkiv har skrivits, med %d till %d byte filer vardera; manifest: %s%n");
+        SVENSKA.put(zpmrgd, "%d poster från %d arkiv har slagits samman till %s; %d namnkonflikter lösta enligt regel %s.%n");
 
         BUNDLES.put(new Locale("sv").getLanguage(), SVENSKA);
 
@@ -94,20 +159,41 @@ public enum Message {
         LATINA.put(updating, "  renovans ");
         LATINA.put(compressed, "comprimerus");
         LATINA.put(deflated, "deflarus");
-        LATINA.put(working, "Fabricans ZIP FileSystem %s, cum parametri '%s'%n");
+        LATINA.put(working, "Fabricans archivum zip %s, cum parametri '%s'%n");
         LATINA.put(output, "archivum zip: ");
-        LATINA.put(usage1, String.format("usus: zipp %s archivum_zip documentum [...]", Option.optionsSyntax()));
+        LATINA.put(usage1, String.format("usus: zipp %s archivum_zip documentum [...]%n      zipp -x [-p] archivum_zip [directorium]%n      zipp -m [--on-conflict=regula] archivum_zip documentum_zip [...]", Option.optionsSyntax()));
         LATINA.put(zpclos, "Omnia documenta lectae sunt, nunc claudeo...");
         LATINA.put(zipdone0, "Egi!");
         LATINA.put(zpdone, "Archivum zip cum documenta aut catalogi indici creatum est.");
         LATINA.put(unkopt, "Error: Optionis ignotus est!");
         LATINA.put(noargs, "Numerus parametri non satis est!");
         LATINA.put(errtrav, "Error dum legens index %s");
-        LATINA.put(cretemp, "Facio %d documentum temporarium, cum %d processore auxiliariis (parametri documentae praetermissi sunt)%n");
+        LATINA.put(cretemp, "Facio %d documentum temporarium, %d MB in summa, magnitudines %s, semen %d, cum %d processore auxiliariis (parametri documentae praetermissi sunt)%n");
+        LATINA.put(gendone, "Facta in %d ms: %d MB textus, %d MB fortuita, %d MB compressa%n");
         LATINA.put(tstadd, "Addere: %d ms CPU in %d ms, ratio %f%n");
         LATINA.put(tstclose, "Claudere: %d ms CPU in %d ms, ratio %f%n");
+        LATINA.put(tstfiles, "Documenta: %d addita, %.0f documenta per secundam, %.1f µs CPU per documentum%n");
         LATINA.put(tsttotal, "Summa: %d ms CPU in %d ms, ratio %f%n");
         LATINA.put(tstproc, "Numerus processore est %d%n");
+        LATINA.put(tstwrkr, "Operarius %s: occupatus %d ms (CPU %d ms), otiosus %d ms (%.0f%% occupatus)%n");
+        LATINA.put(tstphase, "Gradus %-8s %8d ms in %d vocationibus%n");
+        LATINA.put(tstqueue, "Maximae caudae: %d partes comprimendae, %d res scribendae%n");
+        LATINA.put(tstthru, "Transitus: %.1f MB/s, %.1f MB per secundam CPU; purgatio memoriae: %d vices, %d ms%n");
+        LATINA.put(zpcmpct, "Archivum compactum est, %d octeti recuperati sunt.%n");
+        LATINA.put(rsnext, "genus comprimerus .%s");
+        LATINA.put(rsnsmpl, "exemplum %.1f%%");
+        LATINA.put(extracting, "  extrahens ");
+        LATINA.put(zpxtrct, "%d res in %s extractae sunt.%n");
+        LATINA.put(vfyok, "  RECTE %s (%.1f ms)%n");
+        LATINA.put(vfyfail, "  ERRAT %s: %s%n");
+        LATINA.put(vfysum, "%d res probatae: %d rectae, %d erratae, in %d ms.%n");
+        LATINA.put(rsncache, "e promptuario");
+        LATINA.put(cached, "Promptuarium: %d inventa, %d non inventa, %d res conditae, %d octeti expulsi.%n");
+        LATINA.put(ckptrsm, "Ex puncto %s resumitur: %d res iam additae sunt.%n");
+        LATINA.put(rsndup, "duplex %s");
+        LATINA.put(dedupd, "%d documenta %d octetorum duplicia vitata sunt, circa %d ms CPU servata (%d ms in summis computandis).%n");
+        LATINA.put(shardsd, "%d partes archivi scriptae sunt, singulae documentorum %d ad %d octetorum; index: %s%n");
+        LATINA.put(zpmrgd, "%d res ex %d archivis in %s coniunctae sunt; %d nominum conflictus regula %s soluti.%n");
 
         BUNDLES.put(new Locale("la").getLanguage(), LATINA);
     }
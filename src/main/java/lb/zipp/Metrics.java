@@ -0,0 +1,369 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation of archive creation: the time spent in each {@link Phase}, the bytes read and written, and
+ * the depths of the compression and writer queues, in aggregate, and optionally per entry.
+ * <p>
+ * Counters are {@link LongAdder}s, so that recording never contends between workers; only the queue gauges,
+ * which also track their peak, are atomics. The aggregate is available as JSON, and over JMX, as
+ * {@code lb.zipp:type=Metrics}, while {@link #register() registered}. The records of each entry, if kept, are
+ * spooled to a temporary file as entries are written, so that they take no heap, however many entries there are,
+ * until {@link #writeJson(Writer) reported}. All methods are thread safe.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class Metrics implements MetricsMXBean {
+
+    /**
+     * The phases of adding an entry.
+     */
+    enum Phase {
+        /** Reading file attributes */
+        STAT,
+        /** Reading file data */
+        READ,
+        /** Compressing, and checksumming, data */
+        COMPRESS,
+        /** Appending the entry to the archive */
+        WRITE,
+        /** Writing the central directory, and closing the archive */
+        CLOSE
+    }
+
+    /**
+     * The queues work waits in.
+     */
+    enum Queue {
+        /** Chunks and batches read, not yet compressed */
+        COMPRESS,
+        /** Entries compressed, not yet written */
+        WRITE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LongAdder[] nanos = adders(PHASES.length);
+    private final LongAdder[] counts = adders(PHASES.length);
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicLong[] depths = {new AtomicLong(), new AtomicLong()};
+    private final AtomicLong[] peaks = {new AtomicLong(), new AtomicLong()};
+    private final Path entrySpool; // null unless kept
+    private Writer entryRecords; // null unless kept, and writable
+    private long entryCount;
+    private final long created = System.nanoTime();
+    private ObjectName name;
+
+    /**
+     * Creates metrics, in aggregate only.
+     */
+    Metrics() {
+        this.entrySpool = null;
+    }
+
+    /**
+     * Creates metrics.
+     * @param perEntry If true, the phase times of each entry are also kept, for the JSON report
+     * @throws IOException Thrown if the spool file of the entry records could not be created
+     */
+    Metrics(final boolean perEntry) throws IOException {
+        if (perEntry) {
+            this.entrySpool = Files.createTempFile("zipp-metrics", ".json");
+            entrySpool.toFile().deleteOnExit(); // Unless discarded before
+            this.entryRecords = Files.newBufferedWriter(entrySpool, StandardCharsets.UTF_8);
+        } else {
+            this.entrySpool = null;
+        }
+    }
+
+    private static LongAdder[] adders(final int n) {
+        final LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * Returns new, zeroed, phase times of one entry, to be passed to {@link #record(Phase, long, long[])}.
+     * @return Nanoseconds per phase
+     */
+    static long[] timing() {
+        return new long[PHASES.length];
+    }
+
+    /**
+     * Records the time spent in a phase, since the given start.
+     * @param phase Phase
+     * @param startNanos Start of the phase, from {@link System#nanoTime()}
+     * @param timing Phase times of the entry, or null
+     */
+    void record(final Phase phase, final long startNanos, final long[] timing) {
+        final long elapsed = System.nanoTime() - startNanos;
+        nanos[phase.ordinal()].add(elapsed);
+        counts[phase.ordinal()].increment();
+        if (timing != null)
+            timing[phase.ordinal()] += elapsed;
+    }
+
+    /**
+     * Records an entry written to the archive, with the bytes read for it, and written.
+     * @param entry Entry written; its {@link ArchiveEntry#timing() timing}, if any, is kept if per entry
+     */
+    void written(final ArchiveEntry entry) {
+        entries.increment();
+        bytesIn.add(entry.size());
+        bytesOut.add(entry.compressedSize());
+        final long[] timing = entry.timing();
+        if (entrySpool != null && timing != null) {
+            final StringBuilder json = new StringBuilder("{\"name\":");
+            quote(json, entry.name()).append(",\"size\":").append(entry.size())
+                    .append(",\"compressedSize\":").append(entry.compressedSize());
+            for (Phase phase : PHASES) {
+                if (phase != Phase.CLOSE)
+                    json.append(",\"").append(key(phase)).append("Nanos\":").append(timing[phase.ordinal()]);
+            }
+            spool(json.append('}'));
+        }
+    }
+
+    /**
+     * Appends an entry record to the spool file. On failure, no more records are kept.
+     */
+    private synchronized void spool(final StringBuilder record) {
+        if (entryRecords == null)
+            return;
+        try {
+            entryRecords.append(entryCount++ > 0 ? ",\n" : "\n").append(record);
+        } catch (IOException e) {
+            closeSpool();
+        }
+    }
+
+    private synchronized void closeSpool() {
+        try {
+            if (entryRecords != null)
+                entryRecords.close();
+        } catch (IOException e) {
+            // Nothing more to do
+        }
+        entryRecords = null;
+    }
+
+    /**
+     * Records work entering a queue.
+     * @param queue Queue
+     * @param n Number of items
+     */
+    void enqueued(final Queue queue, final int n) {
+        final long depth = depths[queue.ordinal()].addAndGet(n);
+        peaks[queue.ordinal()].accumulateAndGet(depth, Math::max);
+    }
+
+    /**
+     * Records work leaving a queue.
+     * @param queue Queue
+     */
+    void dequeued(final Queue queue) {
+        depths[queue.ordinal()].decrementAndGet();
+    }
+
+    /**
+     * Returns the time spent in a phase, by all threads.
+     * @param phase Phase
+     * @return Nanoseconds
+     */
+    long nanos(final Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of times a phase was recorded.
+     * @param phase Phase
+     * @return Count
+     */
+    long count(final Phase phase) {
+        return counts[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the peak depth of a queue.
+     * @param queue Queue
+     * @return Largest number of items queued at once
+     */
+    long peak(final Queue queue) {
+        return peaks[queue.ordinal()].get();
+    }
+
+    @Override
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getStatMillis() {
+        return nanos(Phase.STAT) / 1_000_000;
+    }
+
+    @Override
+    public long getReadMillis() {
+        return nanos(Phase.READ) / 1_000_000;
+    }
+
+    @Override
+    public long getCompressMillis() {
+        return nanos(Phase.COMPRESS) / 1_000_000;
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return nanos(Phase.WRITE) / 1_000_000;
+    }
+
+    @Override
+    public long getCloseMillis() {
+        return nanos(Phase.CLOSE) / 1_000_000;
+    }
+
+    @Override
+    public long getCompressQueueDepth() {
+        return depths[Queue.COMPRESS.ordinal()].get();
+    }
+
+    @Override
+    public long getCompressQueuePeak() {
+        return peak(Queue.COMPRESS);
+    }
+
+    @Override
+    public long getWriteQueueDepth() {
+        return depths[Queue.WRITE.ordinal()].get();
+    }
+
+    @Override
+    public long getWriteQueuePeak() {
+        return peak(Queue.WRITE);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, replacing any registered before. Failures are
+     * ignored, as JMX only offers a view of the metrics.
+     */
+    synchronized void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName("lb.zipp:type=Metrics");
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException e) {
+            // Not available over JMX, then
+        }
+    }
+
+    /**
+     * Unregisters these metrics, if registered.
+     */
+    synchronized void unregister() {
+        if (name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // Already gone
+        }
+        name = null;
+    }
+
+    /**
+     * Writes the metrics as one JSON object: the totals, the time and count of each phase, the peak queue
+     * depths, and, if kept, the phase times of each entry.
+     * @param out Receives the JSON
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    void writeJson(final Writer out) throws IOException {
+        out.write("{\"elapsedNanos\":" + (System.nanoTime() - created)
+                + ",\"entries\":" + getEntries()
+                + ",\"bytesIn\":" + getBytesIn()
+                + ",\"bytesOut\":" + getBytesOut()
+                + ",\"phases\":{");
+        for (Phase phase : PHASES) {
+            out.write((phase.ordinal() > 0 ? "," : "") + "\"" + key(phase) + "\":{\"nanos\":" + nanos(phase)
+                    + ",\"count\":" + count(phase) + "}");
+        }
+        out.write("},\"queuePeaks\":{\"compress\":" + peak(Queue.COMPRESS) + ",\"write\":" + peak(Queue.WRITE) + "}");
+        if (entrySpool != null) {
+            out.write(",\"perEntry\":[");
+            synchronized (this) {
+                if (entryRecords != null)
+                    entryRecords.flush();
+                try (Reader in = Files.newBufferedReader(entrySpool, StandardCharsets.UTF_8)) {
+                    in.transferTo(out);
+                }
+            }
+            out.write("\n]");
+        }
+        out.write("}\n");
+    }
+
+    /**
+     * Stops keeping entry records, if kept, and deletes their spool file. The aggregate remains available.
+     */
+    synchronized void discardEntries() {
+        closeSpool();
+        if (entrySpool != null) {
+            try {
+                Files.deleteIfExists(entrySpool);
+            } catch (IOException e) {
+                // Deleted on exit, then
+            }
+        }
+    }
+
+    private static String key(final Phase phase) {
+        return phase.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Appends a JSON string literal.
+     */
+    private static StringBuilder quote(final StringBuilder json, final String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < 0x20)
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+        return json.append('"');
+    }
+}
@@ -0,0 +1,81 @@
+package lb.zipp;
+
+/**
+ * The JMX view of the {@link Metrics} of a running zipp: totals, time per phase, and queue depths.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+public interface MetricsMXBean {
+    /**
+     * Returns the number of entries written.
+     * @return Number of entries
+     */
+    long getEntries();
+
+    /**
+     * Returns the uncompressed size of the entries written.
+     * @return Number of bytes
+     */
+    long getBytesIn();
+
+    /**
+     * Returns the compressed size of the entries written.
+     * @return Number of bytes
+     */
+    long getBytesOut();
+
+    /**
+     * Returns the time spent reading file attributes, by all threads.
+     * @return Milliseconds
+     */
+    long getStatMillis();
+
+    /**
+     * Returns the time spent reading file data, by all threads.
+     * @return Milliseconds
+     */
+    long getReadMillis();
+
+    /**
+     * Returns the time spent compressing, by all threads.
+     * @return Milliseconds
+     */
+    long getCompressMillis();
+
+    /**
+     * Returns the time spent appending entries to the archive.
+     * @return Milliseconds
+     */
+    long getWriteMillis();
+
+    /**
+     * Returns the time spent writing the central directory, and closing the archive.
+     * @return Milliseconds
+     */
+    long getCloseMillis();
+
+    /**
+     * Returns the number of chunks read, and not yet compressed.
+     * @return Queue depth
+     */
+    long getCompressQueueDepth();
+
+    /**
+     * Returns the largest number of chunks read, and not yet compressed, at once.
+     * @return Peak queue depth
+     */
+    long getCompressQueuePeak();
+
+    /**
+     * Returns the number of entries compressed, and not yet written.
+     * @return Queue depth
+     */
+    long getWriteQueueDepth();
+
+    /**
+     * Returns the largest number of entries compressed, and not yet written, at once.
+     * @return Peak queue depth
+     */
+    long getWriteQueuePeak();
+}
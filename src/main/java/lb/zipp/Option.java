@@ -30,9 +30,188 @@ public enum Option {
     TEST,
 
     /**
-     * Creates a number of temporary test files which are then added to the target archive.
+     * Requests that no line is printed per entry, so that workers do no console I/O at all.
      */
-    GENERATE;
+    QUIET,
+
+    /**
+     * Requests that the metrics of the run, i.e. the time spent in each phase, in total and per entry, the bytes
+     * read and written, and the peak queue depths, are written as JSON to the given file, or "-" for standard output.
+     */
+    METRICS("metrics", "file"),
+
+    /**
+     * Requests that the names of the files to add are also read from the given file, or from standard input for
+     * "-", separated by NUL characters or newlines. The list is read as the files are added, never all at once.
+     */
+    FILES_FROM('@', "files-from", "file"),
+
+    /**
+     * Creates a synthetic corpus of temporary test files, which are then added to the target archive instead of
+     * any files given. The same {@link #SEED} always creates the same files.
+     */
+    GENERATE,
+
+    /**
+     * Sets the total size of the files created by {@link #GENERATE}.
+     */
+    GEN_SIZE("gen-size", "size"),
+
+    /**
+     * Sets the number of files created by {@link #GENERATE}.
+     */
+    GEN_FILES("gen-files", "n"),
+
+    /**
+     * Sets the distribution of the sizes of the files created by {@link #GENERATE}: "equal", "uniform", or
+     * "lognormal" (the default), i.e. many small files and a few large ones.
+     */
+    GEN_DIST("gen-dist", "name"),
+
+    /**
+     * Sets the weights of the contents of the files created by {@link #GENERATE}, e.g. "text:70,random:10,packed:20":
+     * text, random bytes, and nearly random, i.e. already compressed, data.
+     */
+    GEN_MIX("gen-mix", "mix"),
+
+    /**
+     * Sets the seed of {@link #GENERATE}.
+     */
+    SEED("seed", "n"),
+
+    /**
+     * Requests that an existing archive is updated: unchanged files are skipped, and new or changed files
+     * are appended after the existing entries. Superseded entries are left in place until compacted.
+     */
+    UPDATE,
+
+    /**
+     * Requests that the data of superseded entries is removed from the archive, when it is closed.
+     * If no files are given, an existing archive is compacted only.
+     */
+    COMPACT,
+
+    /**
+     * Requests that the entries of the archive are extracted, into the directory given after the archive name,
+     * or into the current directory. With {@link #PARALLEL}, entries are extracted concurrently.
+     */
+    EXTRACT('x', "extract"),
+
+    /**
+     * Requests that the zip files given after the archive name are merged into the archive, which is replaced.
+     * Compressed data is copied as is, without recompression; see {@link #ON_CONFLICT}.
+     */
+    MERGE,
+
+    /**
+     * Sets how entries of the same name in several merged archives are resolved: "first" (the default) or
+     * "last" keeps only that entry, "rename" keeps all, numbering the later names, and "fail" stops the merge.
+     */
+    ON_CONFLICT("on-conflict", "rule"),
+
+    /**
+     * Requests that the archive is verified: each entry's local header is checked against the central directory,
+     * and its data decoded and checked against its CRC and size. If files are given, the archive is verified
+     * after it has been created; otherwise an existing archive is verified only.
+     */
+    VERIFY,
+
+    /**
+     * Requests that files with identical contents are compressed only once: the entries of duplicates
+     * reuse the compressed data of the first such file.
+     */
+    DEDUP,
+
+    /**
+     * Requests that all files are found, and their sizes read, before any is added, and that they are then added
+     * largest first, so that no large file is left to finish last, on a single worker.
+     */
+    LARGEST_FIRST('l', "largest-first"),
+
+    /**
+     * Sets the compression method: "deflate" (the default), "store", or "zstd", i.e. Zstandard (zip method 93),
+     * which decompresses faster but cannot be extracted by all zip tools.
+     */
+    METHOD("method", "name"),
+
+    /**
+     * Sets the deflate compression level, from 0 (fastest) to 9 (smallest).
+     */
+    LEVEL("level", "n"),
+
+    /**
+     * Requests that a checkpoint of the archive, i.e. the central directory of the entries written so far, is
+     * written every given number of seconds, and that an interrupted run is resumed from its checkpoint: the
+     * partial tail is dropped, and only the files not yet added are added.
+     */
+    CHECKPOINT("checkpoint", "seconds"),
+
+    /**
+     * Sets the directory of a persistent cache of compressed data: files whose path, size, modification time and
+     * inode are unchanged since an earlier run are copied from the cache, without being read or compressed.
+     */
+    CACHE("cache", "dir"),
+
+    /**
+     * Sets the size cap of the {@link #CACHE}, to which the least recently used data is evicted.
+     */
+    CACHE_SIZE("cache-size", "size"),
+
+    /**
+     * Requests that files which are already compressed, judging from their extension or from a deflated
+     * sample of their contents, are stored instead of deflated.
+     */
+    ADAPTIVE,
+
+    /**
+     * Sets the estimated space saving, in percent, below which a file is stored when {@link #ADAPTIVE} is requested.
+     */
+    STORE_THRESHOLD("store-threshold", "percent"),
+
+    /**
+     * Sets the memory budget for data in flight, i.e. read but not yet compressed, or compressed but
+     * not yet written. When used up, workers wait, and compressed data is spilled to temporary files.
+     */
+    MAX_MEMORY("max-memory", "size"),
+
+    /**
+     * Sets the directory for temporary spill files. Defaults to the system's temporary directory.
+     */
+    TEMP_DIR("temp-dir", "dir"),
+
+    /**
+     * Sets the number of compression threads used when {@link #PARALLEL} is requested.
+     * Defaults to the number of available processors.
+     */
+    THREADS("threads", "n"),
+
+    /**
+     * Sets the number of threads traversing directories and reading files when {@link #PARALLEL} is requested.
+     */
+    IO_THREADS("io-threads", "n"),
+
+    /**
+     * Requests that the files are split into the given number of independent archives, written in parallel,
+     * e.g. "backup-1.zip" to "backup-N.zip" for the archive name "backup.zip". The files are assigned to the shards
+     * by size, so that each gets about the same number of bytes, and listed in a manifest, e.g. "backup.manifest".
+     */
+    SHARDS("shards", "n"),
+
+    /**
+     * Sets the directories the shards are written to, in turn, separated by the platform's path separator,
+     * e.g. one per disk. Defaults to the directory of the archive name.
+     */
+    SHARD_DIRS("shard-dirs", "dirs"),
+
+    /**
+     * Sets the size of the blocks a large file is split into, when its blocks are compressed in parallel.
+     */
+    BLOCK_SIZE("block-size", "size"),
+
+    /**
+     * Sets the file size from which a file's blocks are compressed in parallel, when {@link #PARALLEL} is requested.
+     */
+    BLOCK_THRESHOLD("block-threshold", "size");
 
     /**
      * Maps names to options
@@ -40,9 +219,11 @@ public enum Option {
     private static final Map<String, Option> name2option = new HashMap<>();
     private final String shortName;
     private final String longName;
+    private final String valueName;
 
     private static void register(final Option o) {
-        name2option.put(o.shortName, o);
+        if (o.shortName != null)
+            name2option.put(o.shortName, o);
         name2option.put(o.longName, o);
     }
 
@@ -63,6 +244,31 @@ public enum Option {
     Option(final char shortName, final String longName) {
         this.shortName = "-"+shortName;
         this.longName = "--"+longName;
+        this.valueName = null;
+    }
+
+    /**
+     * Creates an lb.zipp.Option which takes a value, given as "--longName=value", or as the argument following
+     * the short name, e.g. "-@ file".
+     * @param shortName Short name
+     * @param longName Long name, without any leading dashes or hyphens
+     * @param valueName Name of the value, for the syntax description
+     */
+    Option(final char shortName, final String longName, final String valueName) {
+        this.shortName = "-"+shortName;
+        this.longName = "--"+longName;
+        this.valueName = valueName;
+    }
+
+    /**
+     * Creates an lb.zipp.Option which takes a value, given as "--longName=value". Such options have no short name.
+     * @param longName Long name, without any leading dashes or hyphens
+     * @param valueName Name of the value, for the syntax description
+     */
+    Option(final String longName, final String valueName) {
+        this.shortName = null;
+        this.longName = "--"+longName;
+        this.valueName = valueName;
     }
 
     /**
@@ -79,6 +285,15 @@ public enum Option {
     Option() {
         this.longName = "--"+name().toLowerCase();
         this.shortName = "-"+name().toLowerCase().charAt(0);
+        this.valueName = null;
+    }
+
+    /**
+     * Tells whether this option takes a value.
+     * @return true if a value must be given, as "--longName=value", or after the short name, if any
+     */
+    public boolean hasValue() {
+        return valueName != null;
     }
 
     /**
@@ -88,13 +303,55 @@ public enum Option {
      * @throws IllegalOptionException If string argument isn't recognised as an option.
      */
     public static Option parseOptionName(final String optionName) {
-        Option result = name2option.get(optionName);
+        final int eq = optionName.indexOf('=');
+        Option result = name2option.get(eq < 0 ? optionName : optionName.substring(0, eq));
         if (result == null) {
             throw new IllegalOptionException(String.format("Unrecognised option '%s'", optionName));
         }
+        if (result.hasValue() != eq >= 0 && !(eq < 0 && optionName.equals(result.shortName))) {
+            throw new IllegalOptionException(result.hasValue()
+                    ? String.format("Option '%s' requires a value", optionName)
+                    : String.format("Option '%s' takes no value", optionName));
+        }
         return result;
     }
 
+    /**
+     * Returns the value part of an option argument, e.g. "1M" of "--block-size=1M".
+     * @param optionName Option argument
+     * @return Option value, or the empty string if the option has no value
+     */
+    public static String parseOptionValue(final String optionName) {
+        final int eq = optionName.indexOf('=');
+        return eq < 0 ? "" : optionName.substring(eq + 1);
+    }
+
+    /**
+     * Parses a size value, e.g. "64K", "1M" or "2G" (binary multiples), or a plain number of bytes.
+     * @param value Size value
+     * @return Size in bytes
+     * @throws IllegalOptionException If the value isn't a valid size.
+     */
+    public static long parseSize(final String value) {
+        final String v = value.trim().toUpperCase();
+        final int shift;
+        switch (v.isEmpty() ? ' ' : v.charAt(v.length() - 1)) {
+            case 'K': shift = 10; break;
+            case 'M': shift = 20; break;
+            case 'G': shift = 30; break;
+            case 'T': shift = 40; break;
+            default: shift = 0;
+        }
+        try {
+            final long n = Long.parseLong(shift == 0 ? v : v.substring(0, v.length() - 1));
+            if (n < 0 || n > (Long.MAX_VALUE >> shift))
+                throw new NumberFormatException(v);
+            return n << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalOptionException(String.format("Invalid size '%s'", value));
+        }
+    }
+
     /**
      * Prepend a single char (specified as int, as {@link String#chars()} returns integers) with
      * a dash, and return this string.
@@ -124,6 +381,9 @@ public enum Option {
      * @return Single option syntax string
      */
     private String syntax() {
+        if (hasValue())
+            return shortName == null ? String.format("[%s=%s]", longName, valueName)
+                    : String.format("[%s %s|%s=%s]", shortName, valueName, longName, valueName);
         return String.format("[%s|%s]", shortName, longName);
     }
 
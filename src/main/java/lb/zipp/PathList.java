@@ -0,0 +1,132 @@
+package lb.zipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of file names, read lazily from a file, or from standard input, as given with {@link Option#FILES_FROM},
+ * so that jobs of millions of files neither hit the command-line limits, nor hold all names in memory.
+ * <p>
+ * Names are separated by NUL characters, as written by e.g. {@code find -print0}, or by newlines, whichever
+ * comes first; with NUL separators, names may contain newlines. Empty names are skipped, and so is the carriage
+ * return of a CRLF line break. The list is decoded in the platform's default charset, like file names.
+ * <p>
+ * The list can only be iterated once, by one thread.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class PathList implements Iterable<String>, Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader in;
+    private final boolean stdin;
+    private final char[] buf = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private int separator = -1; // NUL or newline, once seen
+    private boolean iterated;
+
+    /**
+     * Opens a list.
+     * @param source File name of the list, or "-" for standard input
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    PathList(final String source) throws IOException {
+        this.stdin = "-".equals(source);
+        final InputStream stream = stdin ? System.in : Files.newInputStream(Paths.get(source));
+        this.in = new InputStreamReader(stream, Charset.defaultCharset());
+    }
+
+    /**
+     * Returns the names of the list, read as they are iterated.
+     * @return Iterator of names
+     * @throws IllegalStateException If the list has already been iterated
+     */
+    @Override
+    public Iterator<String> iterator() {
+        if (iterated)
+            throw new IllegalStateException("A path list can only be read once");
+        iterated = true;
+        return new Iterator<String>() {
+            private String next = read();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                final String name = next;
+                next = read();
+                return name;
+            }
+        };
+    }
+
+    /**
+     * Reads the next name.
+     * @return Name, or null at the end of the list
+     */
+    private String read() {
+        final StringBuilder name = new StringBuilder();
+        try {
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buf);
+                    pos = 0;
+                    if (limit < 0) {
+                        limit = 0;
+                        final String s = trim(name);
+                        return s.isEmpty() ? null : s;
+                    }
+                }
+                final char c = buf[pos++];
+                if ((c == 0 || c == '\n') && separator < 0)
+                    separator = c;
+                if (c != separator) {
+                    name.append(c);
+                } else {
+                    final String s = trim(name);
+                    if (!s.isEmpty())
+                        return s;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the name read, without the carriage return of a CRLF line break, and clears the builder.
+     */
+    private String trim(final StringBuilder name) {
+        if (separator == '\n' && name.length() > 0 && name.charAt(name.length() - 1) == '\r')
+            name.setLength(name.length() - 1);
+        final String s = name.toString();
+        name.setLength(0);
+        return s;
+    }
+
+    /**
+     * Closes the list file; standard input is left open.
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    @Override
+    public void close() throws IOException {
+        if (!stdin)
+            in.close();
+    }
+}
@@ -0,0 +1,104 @@
+package lb.zipp;
+
+/**
+ * A compact, thread-safe set of path names, used to detect duplicates among millions of paths.
+ * <p>
+ * Instead of the names themselves, only a 64-bit hash of each name is kept, in striped open-addressing
+ * tables of primitive longs: about 16 bytes per member, compared to some hundreds of bytes for a
+ * {@code HashSet<Path>}. The price is a tiny probability of a false positive, i.e. of a distinct name
+ * being taken for a duplicate: about n²/2⁶⁵ for n names, or less than 10⁻⁶ for ten million names.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class PathSet {
+    private static final int STRIPES = 64;
+    private static final long EMPTY = 0;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    PathSet() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+
+    /**
+     * Adds the given name to this set.
+     * @param name Name, e.g. a normalised path
+     * @return true if the name was not already a member
+     */
+    boolean add(final CharSequence name) {
+        final long h = hash(name);
+        return stripes[(int) (h >>> 58)].add(h);
+    }
+
+    /**
+     * Returns the number of members.
+     * @return Number of members
+     */
+    long size() {
+        long size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                size += s.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters, followed by a MurmurHash3 finaliser to spread the bits.
+     * Zero, which marks empty slots, is never returned.
+     */
+    static long hash(final CharSequence s) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1 : h;
+    }
+
+    /**
+     * One open-addressing table, with linear probing, grown at 50% load.
+     */
+    private static final class Stripe {
+        private long[] table = new long[64];
+        private int size;
+
+        synchronized boolean add(final long h) {
+            if (2 * (size + 1) > table.length)
+                grow();
+            if (!insert(table, h))
+                return false;
+            size++;
+            return true;
+        }
+
+        private static boolean insert(final long[] table, final long h) {
+            final int mask = table.length - 1;
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                if (table[i] == EMPTY) {
+                    table[i] = h;
+                    return true;
+                }
+                if (table[i] == h)
+                    return false;
+            }
+        }
+
+        private void grow() {
+            final long[] bigger = new long[table.length * 2];
+            for (long h : table) {
+                if (h != EMPTY)
+                    insert(bigger, h);
+            }
+            table = bigger;
+        }
+    }
+}
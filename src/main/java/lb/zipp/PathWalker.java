@@ -0,0 +1,197 @@
+package lb.zipp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Finds the files given as file/directory arguments, and hands each distinct file to a consumer
+ * as soon as it has been discovered, i.e. without first collecting all paths.
+ * <p>
+ * In parallel mode, each directory is listed by a fork/join task, and each file found is handed to the
+ * consumer in a task of its own, so directory listing and file processing proceed in parallel on all
+ * the pool's workers. Otherwise, the directory trees are walked depth first, on the calling thread.
+ * <p>
+ * Symbolic links are followed, and a directory reached through a link is walked under that name too, as by
+ * {@code Files.walk} with {@code FOLLOW_LINKS}. Link loops are broken as by {@link Files#walkFileTree}: a directory
+ * is not entered if it is one of its own ancestors, judged by file key (e.g. device and inode), or, where the file
+ * system has no file keys, by real path. Files are made distinct by their normalised path, tracked in a
+ * {@link PathSet}. Directory entries are forked in windows of at most {@value #WINDOW} tasks, so memory use stays
+ * small regardless of the size of the tree, or of a single directory.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class PathWalker {
+    /** Most file/directory arguments, or directory entries, walked at a time per directory, in parallel */
+    private static final int WINDOW = 4096;
+
+    private final boolean recursive;
+    private final Consumer<Path> consumer;
+    private final PathSet visitedFiles = new PathSet();
+
+    /**
+     * Creates a walker.
+     * @param recursive If true, directory arguments are traversed; otherwise they are ignored
+     * @param consumer Receives each distinct (normalised) file path found
+     */
+    PathWalker(final boolean recursive, final Consumer<Path> consumer) {
+        this.recursive = recursive;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Walks the given file/directory arguments on the calling thread.
+     * @param fileNameArgs File or directory names, iterated once
+     */
+    void walk(final Iterable<String> fileNameArgs) {
+        for (String fileName : fileNameArgs)
+            walk(new File(fileName).toPath().normalize(), null);
+    }
+
+    /**
+     * Walks the given file/directory arguments in parallel, in the given pool, and returns
+     * when all files found have been consumed. At most {@value #WINDOW} arguments are walked at a time, so that
+     * a lazily read list of millions of names is never held in memory, as tasks, all at once.
+     * @param fileNameArgs File or directory names, iterated once
+     * @param pool Pool running the walk and the consumer
+     */
+    void walk(final Iterable<String> fileNameArgs, final ForkJoinPool pool) {
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                WorkerPools.timed(() -> {
+                    final Window window = new Window();
+                    for (String fileName : fileNameArgs)
+                        window.fork(new WalkTask(new File(fileName).toPath().normalize(), null));
+                    window.join();
+                });
+            }
+        });
+    }
+
+    private void walk(final Path p, final Ancestor parent) {
+        if (Files.isRegularFile(p)) {
+            consumeFile(p);
+        } else if (recursive) {
+            final Ancestor dir = enterDirectory(p, parent);
+            if (dir != null)
+                list(p, child -> walk(child, dir));
+        }
+    }
+
+    /**
+     * Walks one file or directory, forking a task for each directory entry.
+     */
+    private final class WalkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path path;
+        private final Ancestor parent;
+
+        WalkTask(final Path path, final Ancestor parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            WorkerPools.timed(() -> {
+                if (Files.isRegularFile(path)) {
+                    consumeFile(path);
+                } else if (recursive) {
+                    final Ancestor dir = enterDirectory(path, parent);
+                    if (dir != null) {
+                        final Window window = new Window();
+                        list(path, child -> window.fork(new WalkTask(child, dir)));
+                        window.join();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Tasks forked, and not yet joined, of one directory, or of the arguments. All are joined whenever
+     * {@value #WINDOW} are outstanding.
+     */
+    private static final class Window {
+        private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+        void fork(final ForkJoinTask<?> task) {
+            tasks.add(task.fork());
+            if (tasks.size() == WINDOW)
+                join();
+        }
+
+        void join() {
+            tasks.forEach(ForkJoinTask::join);
+            tasks.clear();
+        }
+    }
+
+    /**
+     * A directory being walked, linked to the directory it was reached from.
+     */
+    private static final class Ancestor {
+        final Object key;
+        final Ancestor parent;
+
+        Ancestor(final Object key, final Ancestor parent) {
+            this.key = key;
+            this.parent = parent;
+        }
+
+        boolean contains(final Object k) {
+            for (Ancestor a = this; a != null; a = a.parent) {
+                if (a.key.equals(k))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private void consumeFile(final Path p) {
+        if (visitedFiles.add(p.toString()))
+            consumer.accept(p);
+    }
+
+    /**
+     * Enters the given path, if it is a directory which is not one of its own ancestors, i.e. not reached through
+     * a link loop. Directories are identified by their file key (e.g. device and inode), or, where the file system
+     * has no file keys, by their real path.
+     * @return The directory, as the ancestor of its entries, or null if not to be walked
+     */
+    private static Ancestor enterDirectory(final Path dir, final Ancestor parent) {
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+            if (!attrs.isDirectory())
+                return null;
+            final Object key = attrs.fileKey() != null ? attrs.fileKey() : dir.toRealPath();
+            return parent != null && parent.contains(key) ? null : new Ancestor(key, parent);
+        } catch (IOException e) {
+            return null; // Neither file nor directory, e.g. a dangling link: ignore
+        }
+    }
+
+    /**
+     * Hands each entry of the given directory to the given consumer, as it is read.
+     */
+    private static void list(final Path dir, final Consumer<Path> childConsumer) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream)
+                childConsumer.accept(child);
+        } catch (IOException | DirectoryIteratorException e) {
+            throw new RuntimeException(String.format(Message.getMessage(Message.errtrav), dir), e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package lb.zipp;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prints the progress lines of the workers, e.g. one per entry added, on a thread of its own, so that workers
+ * never wait for the console, nor for each other: lines are handed over through a lock-free queue, and printed
+ * in batches, a few times per second.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class Reporter implements AutoCloseable {
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final PrintStream out;
+    private final ConcurrentLinkedQueue<CharSequence> lines = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Creates a reporter, and starts its thread.
+     * @param out Stream to print to
+     */
+    Reporter(final PrintStream out) {
+        this.out = out;
+        this.thread = new Thread(this::run, "zipp-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a line for printing.
+     * @param line Line, without line separator
+     */
+    void println(final CharSequence line) {
+        lines.add(line);
+    }
+
+    private void run() {
+        while (!closed) {
+            LockSupport.parkNanos(this, INTERVAL_NANOS);
+            flush();
+        }
+    }
+
+    /**
+     * Prints all lines queued so far, on the calling thread.
+     */
+    synchronized void flush() {
+        if (lines.isEmpty())
+            return;
+        final StringBuilder text = new StringBuilder();
+        for (CharSequence line; (line = lines.poll()) != null; )
+            text.append(line).append(System.lineSeparator());
+        out.print(text);
+        out.flush();
+    }
+
+    /**
+     * Stops the reporter thread, and prints any lines still queued.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,97 @@
+package lb.zipp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Assigns files to the shards of a sharded archive, i.e. to N independent zip archives written in parallel,
+ * so that each shard gets about the same number of bytes.
+ * <p>
+ * Files are bin-packed by the longest-processing-time rule: largest first, each to the shard with the least
+ * bytes so far. The largest shard is then at most 4/3 of the optimum, and usually within one small file of it.
+ * <p>
+ * The plan is written as a manifest, a UTF-8 text file with one line per file: the shard's file name,
+ * a tab, and the entry name.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ShardPlan {
+    private final List<Path> shards;
+    private final long[] loads;
+    private final Map<Path, Integer> shardOf = new HashMap<>();
+    private final List<Path> order = new ArrayList<>();
+
+    /**
+     * Plans the given files.
+     * @param files Files to add, with their sizes
+     * @param shards Paths of the shard archives
+     */
+    ShardPlan(final Map<Path, Long> files, final List<Path> shards) {
+        this.shards = shards;
+        this.loads = new long[shards.size()];
+        final PriorityQueue<Integer> lightest = new PriorityQueue<>(
+                Comparator.<Integer>comparingLong(i -> loads[i]).thenComparing(i -> i));
+        for (int i = 0; i < loads.length; i++)
+            lightest.add(i);
+        order.addAll(files.keySet());
+        order.sort(Comparator.<Path>comparingLong(files::get).reversed().thenComparing(Comparator.naturalOrder()));
+        for (Path file : order) {
+            final int shard = lightest.remove();
+            loads[shard] += files.get(file);
+            lightest.add(shard);
+            shardOf.put(file, shard);
+        }
+    }
+
+    /**
+     * Returns the planned files, largest first.
+     * @return Files
+     */
+    Collection<Path> files() {
+        return order;
+    }
+
+    /**
+     * Returns the shard a file is assigned to.
+     * @param file Planned file
+     * @return Shard index
+     */
+    int shardOf(final Path file) {
+        return shardOf.get(file);
+    }
+
+    /**
+     * Returns the number of (uncompressed) bytes assigned to each shard.
+     * @return Bytes per shard
+     */
+    long[] loads() {
+        return loads.clone();
+    }
+
+    /**
+     * Writes the manifest, mapping each file's entry name to its shard.
+     * @param manifest Path of the manifest
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    void writeManifest(final Path manifest) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            for (Path file : order) {
+                out.write(shards.get(shardOf(file)).getFileName().toString());
+                out.write('\t');
+                out.write(ZipFormat.entryName(file));
+                out.write('\n');
+            }
+        }
+    }
+}
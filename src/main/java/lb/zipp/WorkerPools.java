@@ -0,0 +1,258 @@
+package lb.zipp;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The dedicated thread pools of a parallel zipp run, used instead of the JVM-wide common pool.
+ * <p>
+ * I/O and CPU stages run in separate pools: directory traversal and file reads, which mostly wait for
+ * the disk, run in the I/O pool, while compression runs in the CPU pool. The CPU pool is normally sized to
+ * the number of available processors (which respects any container CPU quota), while the I/O pool may be
+ * larger or smaller, to keep the disks busy without starving the compressors.
+ * <p>
+ * Work handed to the pools is {@link #track(CompletableFuture) tracked}, so that the submitter can
+ * {@link #awaitCompletion() await} it all.
+ * <p>
+ * The {@link #busyNanos() busy time} of each worker, i.e. the wall time spent running tasks, whether computing or
+ * blocked in reads and writes, is recorded, so that idle workers, e.g. while one worker finishes a large file
+ * alone, show up in the test output. Tasks handed to the pools as {@link java.util.concurrent.Executor}s, or
+ * submitted, are timed by the pools; tasks forked inside them time themselves with {@link #timed(Runnable)}.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class WorkerPools implements Closeable {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ForkJoinPool cpu;
+    private final ForkJoinPool io;
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final long created = System.nanoTime();
+    private final Object lock = new Object();
+    private long pending;
+
+    /**
+     * Creates the pools.
+     * @param cpuThreads Number of compression threads
+     * @param ioThreads Number of traversal and read threads
+     */
+    WorkerPools(final int cpuThreads, final int ioThreads) {
+        cpu = new TimedPool(cpuThreads, threadFactory("zipp-cpu-"));
+        io = new TimedPool(ioThreads, threadFactory("zipp-io-"));
+    }
+
+    /**
+     * Creates a CPU pool only, for callers which read on their own threads, e.g. {@link ZipArchive}.
+     * @param cpuThreads Number of compression threads
+     */
+    WorkerPools(final int cpuThreads) {
+        cpu = new TimedPool(cpuThreads, threadFactory("zipp-cpu-"));
+        io = null;
+    }
+
+    private ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory(final String prefix) {
+        // Numbered here, as the pool index is not yet assigned when the thread is created, on all JDKs
+        final AtomicInteger count = new AtomicInteger();
+        return pool -> {
+            final Worker t = new Worker(pool);
+            t.setName(prefix + count.getAndIncrement());
+            workers.add(t);
+            return t;
+        };
+    }
+
+    /**
+     * A pool which times the tasks executed, or submitted, on its workers.
+     */
+    private static final class TimedPool extends ForkJoinPool {
+        TimedPool(final int threads, final ForkJoinWorkerThreadFactory factory) {
+            super(threads, factory, null, false);
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            super.execute((Runnable) () -> timed(task));
+        }
+
+        @Override
+        public <T> ForkJoinTask<T> submit(final Callable<T> task) {
+            return super.submit(() -> {
+                final Worker w = Worker.begin();
+                try {
+                    return task.call();
+                } finally {
+                    Worker.end(w);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a task, recording its wall time as busy time of the current worker, if any. Tasks run within
+     * timed tasks, e.g. while joining, are not counted twice.
+     * @param task Task
+     */
+    static void timed(final Runnable task) {
+        final Worker w = Worker.begin();
+        try {
+            task.run();
+        } finally {
+            Worker.end(w);
+        }
+    }
+
+    /**
+     * A worker thread, which records the wall time it spends running tasks, and its CPU time when it terminates.
+     */
+    private static final class Worker extends ForkJoinWorkerThread {
+        private volatile long cpuNanos = -1;
+        private volatile long busyNanos; // Written by this worker only
+        private int depth;
+        private long start;
+
+        Worker(final ForkJoinPool pool) {
+            super(pool);
+        }
+
+        /**
+         * Starts timing a task, if run by a worker.
+         * @return The current worker, or null
+         */
+        static Worker begin() {
+            final Thread t = Thread.currentThread();
+            if (!(t instanceof Worker))
+                return null;
+            final Worker w = (Worker) t;
+            if (w.depth++ == 0)
+                w.start = System.nanoTime();
+            return w;
+        }
+
+        static void end(final Worker w) {
+            if (w != null && --w.depth == 0)
+                w.busyNanos += System.nanoTime() - w.start;
+        }
+
+        @Override
+        protected void onTermination(final Throwable exception) {
+            cpuNanos = THREADS.getCurrentThreadCpuTime();
+            super.onTermination(exception);
+        }
+
+        long cpuNanos() {
+            final long live = THREADS.getThreadCpuTime(getId());
+            return live >= 0 ? live : Math.max(0, cpuNanos);
+        }
+    }
+
+    /**
+     * Returns the pool for CPU-bound work, i.e. compression.
+     * @return CPU pool
+     */
+    ForkJoinPool cpu() {
+        return cpu;
+    }
+
+    /**
+     * Returns the pool for I/O-bound work, i.e. traversal and reading.
+     * @return I/O pool, or null if created with a CPU pool only
+     */
+    ForkJoinPool io() {
+        return io;
+    }
+
+    /**
+     * Registers work to be awaited by {@link #awaitCompletion()}.
+     * @param future Future of the work
+     * @param <T> Type of result
+     * @return The given future
+     */
+    <T> CompletableFuture<T> track(final CompletableFuture<T> future) {
+        synchronized (lock) {
+            pending++;
+        }
+        future.whenComplete((r, e) -> {
+            synchronized (lock) {
+                if (--pending == 0)
+                    lock.notifyAll();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits until all tracked work has completed, successfully or not.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    void awaitCompletion() throws InterruptedException {
+        synchronized (lock) {
+            while (pending > 0)
+                lock.wait();
+        }
+    }
+
+    /**
+     * Returns the busy time of each worker so far, i.e. the wall time spent running tasks, by thread name,
+     * CPU workers first. A worker's idle time is the {@link #elapsedNanos() elapsed time} less its busy time.
+     * @return Busy time, in nanoseconds, by thread name
+     */
+    Map<String, Long> busyNanos() {
+        final Map<String, Long> result = byName();
+        for (Worker w : workers)
+            result.merge(w.getName(), w.busyNanos, Long::sum);
+        return result;
+    }
+
+    /**
+     * Returns the CPU time of each worker so far, by thread name, CPU workers first. For I/O workers, this is
+     * usually much less than their busy time, which includes waiting for the disk.
+     * @return CPU time, in nanoseconds, by thread name
+     */
+    Map<String, Long> cpuNanos() {
+        final Map<String, Long> result = byName();
+        for (Worker w : workers)
+            result.merge(w.getName(), w.cpuNanos(), Long::sum);
+        return result;
+    }
+
+    private static Map<String, Long> byName() {
+        return new TreeMap<>(Comparator.comparing((String name) -> !name.startsWith("zipp-cpu-"))
+                .thenComparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+    }
+
+    /**
+     * Returns the time since the pools were created.
+     * @return Elapsed time, in nanoseconds
+     */
+    long elapsedNanos() {
+        return System.nanoTime() - created;
+    }
+
+    @Override
+    public void close() {
+        cpu.shutdown();
+        if (io != null)
+            io.shutdown();
+        try {
+            cpu.awaitTermination(1, TimeUnit.MINUTES);
+            if (io != null)
+                io.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
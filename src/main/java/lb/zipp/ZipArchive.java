@@ -0,0 +1,355 @@
+package lb.zipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+/**
+ * A zip archive being written, for use as a library: entries are added from files, streams, buffers or
+ * channels, each returning a future of the entry's {@link EntryStats}, and the archive is written to a file,
+ * or as a stream to any {@link WritableByteChannel}, e.g. a socket, without touching the disk.
+ * <p>
+ * Archives are created by a {@link Builder}:
+ * <pre>{@code
+ * try (ZipArchive zip = ZipArchive.builder().threads(4).create(channel)) {
+ *     zip.add("report.txt", Paths.get("report.txt"));
+ *     zip.add("data.json", ByteBuffer.wrap(json)).thenAccept(System.out::println);
+ * }
+ * }</pre>
+ * Each source is read on the calling thread, before {@code add} returns, while its data is compressed
+ * asynchronously, by the compression threads, and appended to the archive by a single writer thread.
+ * All methods are thread safe, so entries may also be added concurrently.
+ * <p>
+ * Parent directory entries are added for each entry name, as the command-line zipp does. Each name may only be
+ * added once; adding it again is rejected, unless the earlier entry failed.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+public final class ZipArchive implements Closeable {
+
+    /**
+     * Compression methods.
+     */
+    public enum Method {
+        /** Stored, i.e. not compressed */
+        STORE(ZipFormat.STORED),
+        /** Deflated; readable by all zip tools */
+        DEFLATE(ZipFormat.DEFLATED),
+        /** Zstandard (zip method 93); decompresses faster, but is not readable by all zip tools */
+        ZSTD(ZipFormat.ZSTD);
+
+        private final int code;
+
+        Method(final int code) {
+            this.code = code;
+        }
+
+        static Method of(final int code) {
+            for (Method m : values()) {
+                if (m.code == code)
+                    return m;
+            }
+            throw new IllegalArgumentException("Unknown compression method " + code);
+        }
+    }
+
+    /**
+     * Configures and creates archives. Unless configured otherwise, entries are deflated at the default
+     * level, on the thread adding them.
+     */
+    public static final class Builder {
+        private Method method = Method.DEFLATE;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+        private int threads = 1;
+        private long maxMemory = Runtime.getRuntime().maxMemory() / 2;
+        private Path tempDir;
+        private int blockSize = (int) Zipp.DEFAULT_BLOCK_SIZE;
+        private long blockThreshold = Zipp.DEFAULT_BLOCK_THRESHOLD;
+        private boolean adaptive;
+        private double storeThreshold = Zipp.DEFAULT_STORE_THRESHOLD;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the compression method.
+         * @param method Compression method
+         * @return This builder
+         */
+        public Builder method(final Method method) {
+            if (method == null)
+                throw new IllegalArgumentException("No method given");
+            this.method = method;
+            return this;
+        }
+
+        /**
+         * Sets the deflate compression level.
+         * @param level From 0 (fastest) to 9 (smallest)
+         * @return This builder
+         */
+        public Builder level(final int level) {
+            if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                throw new IllegalArgumentException("Invalid level " + level);
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Sets the number of compression threads. With more than one, entries are compressed in a pool of
+         * their own, and large files are deflated in parallel blocks.
+         * @param threads Number of threads; 1 to compress on the thread adding the entries
+         * @return This builder
+         */
+        public Builder threads(final int threads) {
+            if (threads < 1)
+                throw new IllegalArgumentException("Invalid thread count " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the memory budget for data in flight, i.e. read but not yet compressed, or compressed but not yet
+         * written. When used up, adding waits, and compressed data is spilled to temporary files.
+         * @param bytes Budget, in bytes
+         * @return This builder
+         */
+        public Builder maxMemory(final long bytes) {
+            if (bytes <= 0)
+                throw new IllegalArgumentException("Invalid memory budget " + bytes);
+            this.maxMemory = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the directory for temporary spill files.
+         * @param dir Directory, or null for the system's temporary directory
+         * @return This builder
+         */
+        public Builder tempDir(final Path dir) {
+            this.tempDir = dir;
+            return this;
+        }
+
+        /**
+         * Sets the size of the blocks of files deflated in parallel.
+         * @param bytes Block size, from 64K
+         * @return This builder
+         */
+        public Builder blockSize(final int bytes) {
+            if (bytes < 64 * 1024 || bytes > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Invalid block size " + bytes);
+            this.blockSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the file size from which a file's blocks are deflated in parallel.
+         * @param bytes File size
+         * @return This builder
+         */
+        public Builder blockThreshold(final long bytes) {
+            this.blockThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Requests that files which are already compressed, judging from their extension or from a sample of
+         * their contents, are stored. Applies to entries added from files only.
+         * @param storeThreshold Estimated space saving, in percent, below which a file is stored
+         * @return This builder
+         */
+        public Builder adaptive(final double storeThreshold) {
+            if (!(storeThreshold >= 0 && storeThreshold <= 100))
+                throw new IllegalArgumentException("Invalid percentage " + storeThreshold);
+            this.adaptive = true;
+            this.storeThreshold = storeThreshold;
+            return this;
+        }
+
+        /**
+         * Creates a new archive file. Any existing file is truncated.
+         * @param archive Path of the archive
+         * @return Archive, to add entries to
+         * @throws IOException Thrown on any underlying IO errors
+         */
+        public ZipArchive create(final Path archive) throws IOException {
+            return new ZipArchive(this, codec(), new ZipWriter(archive));
+        }
+
+        /**
+         * Creates a new archive, written as a stream to the given channel, which must be blocking. The channel is
+         * not closed when the archive is.
+         * @param out Channel receiving the archive, e.g. a socket
+         * @return Archive, to add entries to
+         */
+        public ZipArchive create(final WritableByteChannel out) {
+            return new ZipArchive(this, codec(), new ZipWriter(out));
+        }
+
+        private Codec codec() {
+            switch (method) {
+                case STORE:
+                    return null;
+                case ZSTD:
+                    if (level != Deflater.DEFAULT_COMPRESSION)
+                        throw new IllegalStateException("The level cannot be set for method " + method);
+                    return new ZstdCodec();
+                default:
+                    return new DeflateCodec(level);
+            }
+        }
+    }
+
+    private final ZipWriter writer;
+    private final EntryCompressor compressor;
+    private final MemoryBudget budget;
+    private final WorkerPools pools;
+    private final Executor cpu;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+
+    private ZipArchive(final Builder builder, final Codec codec, final ZipWriter writer) {
+        this.writer = writer;
+        this.budget = new MemoryBudget(builder.maxMemory, builder.tempDir);
+        if (builder.threads > 1) {
+            this.pools = new WorkerPools(builder.threads); // Sources are read by the callers
+            this.cpu = pools.cpu();
+        } else {
+            this.pools = null;
+            this.cpu = Runnable::run;
+        }
+        this.compressor = new EntryCompressor(codec,
+                pools != null && codec instanceof DeflateCodec
+                        ? new BlockDeflater(builder.blockSize, builder.level, pools.cpu(), budget) : null,
+                builder.blockThreshold, builder.adaptive, builder.storeThreshold, budget, new Metrics());
+    }
+
+    /**
+     * Returns a new builder.
+     * @return Builder, with the default configuration
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A source of entry data, compressed on demand.
+     */
+    private interface Source {
+        CompletableFuture<ArchiveEntry> compress(String name) throws IOException;
+    }
+
+    /**
+     * Adds a file, with its modification time.
+     * @param name Entry name, using '/' as separator
+     * @param file File to add
+     * @return Future of the entry, as written, completed exceptionally if the file could not be added
+     * @throws IllegalArgumentException If the name is invalid, or has already been added
+     */
+    public CompletableFuture<EntryStats> add(final String name, final Path file) {
+        return add(name, n -> compressor.compressAsync(file, n, compressor.decide(file).method, cpu));
+    }
+
+    /**
+     * Adds the contents of a stream, read to its end, with the current time. The stream is not closed.
+     * @param name Entry name, using '/' as separator
+     * @param in Stream to add
+     * @return Future of the entry, as written, completed exceptionally if the stream could not be added
+     * @throws IllegalArgumentException If the name is invalid, or has already been added
+     */
+    public CompletableFuture<EntryStats> add(final String name, final InputStream in) {
+        return add(name, Channels.newChannel(in));
+    }
+
+    /**
+     * Adds the contents of a channel, read to its end, with the current time. The channel is not closed.
+     * @param name Entry name, using '/' as separator
+     * @param in Channel to add
+     * @return Future of the entry, as written, completed exceptionally if the channel could not be added
+     * @throws IllegalArgumentException If the name is invalid, or has already been added
+     */
+    public CompletableFuture<EntryStats> add(final String name, final ReadableByteChannel in) {
+        return add(name, n -> compressor.compressAsync(in, n, now(), cpu));
+    }
+
+    /**
+     * Adds the contents of a buffer, from its position to its limit, with the current time. The buffer is
+     * compressed in place, so it must not be modified until the returned future completes; its position is
+     * not changed.
+     * @param name Entry name, using '/' as separator
+     * @param data Data to add
+     * @return Future of the entry, as written, completed exceptionally if the buffer could not be added
+     * @throws IllegalArgumentException If the name is invalid, or has already been added
+     */
+    public CompletableFuture<EntryStats> add(final String name, final ByteBuffer data) {
+        return add(name, n -> compressor.compressAsync(data, n, now(), cpu));
+    }
+
+    private CompletableFuture<EntryStats> add(final String name, final Source source) {
+        if (closed.get())
+            throw new IllegalStateException("Archive is closed");
+        if (name == null || name.isEmpty() || name.startsWith("/") || name.endsWith("/"))
+            throw new IllegalArgumentException(String.format("Invalid entry name '%s'", name));
+        if (!names.add(name))
+            throw new IllegalArgumentException(String.format("Duplicate entry name '%s'", name));
+        CompletableFuture<ArchiveEntry> compressed;
+        try {
+            budget.awaitAvailable(); // Backpressure: wait for the writer to catch up
+            compressed = source.compress(name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            compressed = CompletableFuture.failedFuture(new InterruptedIOException());
+        } catch (IOException | RuntimeException e) {
+            compressed = CompletableFuture.failedFuture(e);
+        }
+        final CompletableFuture<EntryStats> result = compressed.thenCompose(entry -> {
+            writer.addDirectories(entry.name(), entry.dosTime());
+            return writer.write(entry);
+        }).thenApply(EntryStats::new);
+        result.whenComplete((stats, e) -> {
+            if (e != null)
+                names.remove(name); // Nothing was written, so the name may be added again
+        });
+        return pools == null ? result : pools.track(result);
+    }
+
+    private static long now() {
+        return ZipFormat.javaToDosTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Waits for all entries added to be written, then writes the central directory, and closes the archive.
+     * Entries which failed are left out.
+     * @throws IOException Thrown on any underlying IO errors while writing
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true))
+            return;
+        try {
+            if (pools != null)
+                pools.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            if (pools != null)
+                pools.close();
+            writer.close();
+        }
+    }
+}
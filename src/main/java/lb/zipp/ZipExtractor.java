@@ -0,0 +1,91 @@
+package lb.zipp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Extracts the entries of an archive into a directory.
+ * <p>
+ * The central directory is read once, by a {@link ZipReader}. Entry data is decoded by an {@link EntryDecoder},
+ * with positional reads only, so any number of threads may {@link #extract(ArchiveEntry) extract} entries
+ * concurrently, without shared seek state. Each entry's CRC and size are verified.
+ * <p>
+ * Entry names which would resolve to a path outside the target directory, e.g. by containing "..", are
+ * rejected.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ZipExtractor {
+    private final ZipReader reader;
+    private final EntryDecoder decoder;
+    private final Path target;
+
+    /**
+     * Creates an extractor.
+     * @param reader Reader of the archive
+     * @param target Target directory, created if needed
+     */
+    ZipExtractor(final ZipReader reader, final Path target) {
+        this.reader = reader;
+        this.decoder = new EntryDecoder(reader);
+        this.target = target.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns the entries in the order they should be extracted: directories first, then files, largest first,
+     * so that the largest entries do not end up last on a single worker. Where an archive holds several entries
+     * of the same name, only the last is extracted.
+     * @return Entries to extract
+     */
+    List<ArchiveEntry> schedule() {
+        final Map<String, ArchiveEntry> byName = new LinkedHashMap<>();
+        for (ArchiveEntry entry : reader.entries())
+            byName.put(entry.name(), entry);
+        final List<ArchiveEntry> result = new ArrayList<>(byName.values());
+        result.sort(Comparator.comparing(ArchiveEntry::isDirectory).reversed()
+                .thenComparing(Comparator.comparingLong(ArchiveEntry::size).reversed()));
+        return result;
+    }
+
+    /**
+     * Extracts one entry, creating its parent directories as needed, and sets its modification time.
+     * @param entry Entry of the archive
+     * @throws IOException Thrown on any underlying IO errors, or if the entry is invalid
+     */
+    void extract(final ArchiveEntry entry) throws IOException {
+        final Path file = resolve(entry.name());
+        if (entry.isDirectory()) {
+            Files.createDirectories(file);
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        final long offset = reader.dataOffset(entry);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            decoder.decode(entry, offset, out);
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(ZipFormat.dosToJavaTime(entry.dosTime())));
+    }
+
+    /**
+     * Returns the path an entry is extracted to.
+     * @throws ZipException If the path would be outside the target directory
+     */
+    private Path resolve(final String name) throws ZipException {
+        final Path file = target.resolve(name).normalize();
+        if (!file.startsWith(target) || file.equals(target))
+            throw new ZipException(String.format("Entry %s would be extracted outside %s", name, target));
+        return file;
+    }
+}
@@ -0,0 +1,125 @@
+package lb.zipp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Constants and small helpers describing the on-disk zip format (PKWARE APPNOTE), as used by
+ * {@link ZipWriter}.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ZipFormat {
+
+    static final int LOCSIG = 0x04034b50;   // Local file header signature
+    static final int CENSIG = 0x02014b50;   // Central directory file header signature
+    static final int ENDSIG = 0x06054b50;   // End of central directory record signature
+    static final int ZIP64_ENDSIG = 0x06064b50;  // Zip64 end of central directory record signature
+    static final int ZIP64_LOCSIG = 0x07064b50;  // Zip64 end of central directory locator signature
+
+    static final int LOCHDR = 30;           // Local header size, excluding name and extra
+    static final int CENHDR = 46;           // Central header size, excluding name, extra and comment
+    static final int ENDHDR = 22;           // End of central directory record size, excluding comment
+    static final int ZIP64_ENDHDR = 56;     // Zip64 end of central directory record size
+    static final int ZIP64_LOCHDR = 20;     // Zip64 end of central directory locator size
+
+    static final int ZIP64_EXTID = 0x0001;  // Zip64 extended information extra field id
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+    static final int ZSTD = 93;
+
+    static final int VERSION_DEFAULT = 20;  // 2.0: deflate and directories
+    static final int VERSION_ZIP64 = 45;    // 4.5: zip64
+    static final int VERSION_ZSTD = 63;     // 6.3: Zstandard, as other methods added since
+
+    static final int FLAG_DATA_DESCRIPTOR = 0x0008; // General purpose bit 3: sizes follow the data
+    static final int FLAG_UTF8 = 0x0800;    // General purpose bit 11: names are UTF-8
+
+    static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    static final int ZIP64_MAGICCOUNT = 0xFFFF;
+
+    static final int DOS_ATTR_DIRECTORY = 0x10;
+
+    private ZipFormat() {
+    }
+
+    /**
+     * Allocates a little-endian heap buffer, as all zip header fields are little-endian.
+     * @param capacity Buffer capacity
+     * @return New little-endian buffer
+     */
+    static ByteBuffer allocate(final int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the version needed to extract an entry.
+     * @param method Compression method
+     * @param zip64 true if the entry has Zip64 extended information
+     * @return Version needed, e.g. {@link #VERSION_DEFAULT}
+     */
+    static int versionNeeded(final int method, final boolean zip64) {
+        if (method == ZSTD)
+            return VERSION_ZSTD;
+        return zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+    }
+
+    /**
+     * Converts a Java time (milliseconds since the epoch) to an MS-DOS date/time value, in the
+     * default time zone. Times before 1980 are clamped to 1980-01-01.
+     * @param millis Java time
+     * @return MS-DOS date and time, packed in the lower 32 bits
+     */
+    static long javaToDosTime(final long millis) {
+        final LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        final int year = ldt.getYear() - 1980;
+        if (year < 0) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((Math.min(year, 127) << 25)
+                | (ldt.getMonthValue() << 21)
+                | (ldt.getDayOfMonth() << 16)
+                | (ldt.getHour() << 11)
+                | (ldt.getMinute() << 5)
+                | (ldt.getSecond() >> 1)) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Converts an MS-DOS date/time value to a Java time (milliseconds since the epoch), in the
+     * default time zone.
+     * @param dosTime MS-DOS date and time, packed in the lower 32 bits
+     * @return Java time
+     */
+    static long dosToJavaTime(final long dosTime) {
+        final LocalDateTime ldt = LocalDateTime.of(
+                (int) ((dosTime >> 25) & 0x7F) + 1980,
+                (int) Math.max(1, Math.min(12, (dosTime >> 21) & 0x0F)),
+                (int) Math.max(1, (dosTime >> 16) & 0x1F),
+                (int) Math.min(23, (dosTime >> 11) & 0x1F),
+                (int) Math.min(59, (dosTime >> 5) & 0x3F),
+                (int) Math.min(59, (dosTime << 1) & 0x3E));
+        return ldt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Converts a path to a zip entry name: separators become '/', and any root component
+     * (e.g. a leading '/' or drive letter) is dropped.
+     * @param p Path, not null
+     * @return Entry name, without a trailing '/'
+     */
+    static String entryName(final Path p) {
+        final StringBuilder sb = new StringBuilder();
+        for (Path element : p) {
+            if (sb.length() > 0)
+                sb.append('/');
+            sb.append(element.toString());
+        }
+        return sb.toString();
+    }
+}
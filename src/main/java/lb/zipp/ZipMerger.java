@@ -0,0 +1,200 @@
+package lb.zipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Merges existing zip archives into one, without recompressing anything.
+ * <p>
+ * The central directories of all inputs are read first, and entries of the same name resolved by a
+ * {@link Conflict} rule. The compressed data and CRC of each chosen entry is then copied as is, with
+ * {@link ChannelRegion}s, and only the headers and offsets are written anew. Merging thus costs about as much
+ * as copying the files. Directory entries are merged, i.e. never conflict.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ZipMerger implements Closeable {
+
+    /**
+     * How to resolve entries of the same name in several inputs.
+     */
+    enum Conflict {
+        /** Keeps the entry of the first input */
+        FIRST,
+        /** Keeps the entry of the last input */
+        LAST,
+        /** Keeps all entries, adding a number to the names of all but the first, e.g. "a~2.txt" */
+        RENAME,
+        /** Fails the merge */
+        FAIL;
+
+        /**
+         * Parses a rule name.
+         * @param name Rule name, e.g. "first"
+         * @return Rule
+         * @throws IllegalOptionException If the name is unknown
+         */
+        static Conflict parse(final String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalOptionException(String.format("Unknown conflict rule '%s'", name));
+            }
+        }
+    }
+
+    /**
+     * An entry of an input, to be copied under the given name.
+     */
+    private static final class Source {
+        final ZipReader reader;
+        final ArchiveEntry entry;
+
+        Source(final ZipReader reader, final ArchiveEntry entry) {
+            this.reader = reader;
+            this.entry = entry;
+        }
+    }
+
+    private final Conflict rule;
+    private final List<ZipReader> inputs = new ArrayList<>();
+    private final Map<String, Source> merged = new LinkedHashMap<>();
+    private int conflicts;
+
+    /**
+     * Creates a merger.
+     * @param rule How to resolve entries of the same name
+     */
+    ZipMerger(final Conflict rule) {
+        this.rule = rule;
+    }
+
+    /**
+     * Adds the entries of an input archive. The archive is kept open until this merger is closed.
+     * Where an input holds several entries of the same name, only the last is live, and only that one is added.
+     * @param archive Path of the input archive
+     * @throws IOException Thrown on any underlying IO errors, or on a conflict with rule {@link Conflict#FAIL}
+     */
+    void add(final Path archive) throws IOException {
+        final ZipReader reader = new ZipReader(archive);
+        inputs.add(reader);
+        final Map<String, ArchiveEntry> live = new LinkedHashMap<>();
+        for (ArchiveEntry entry : reader.entries())
+            live.put(entry.name(), entry);
+        for (ArchiveEntry entry : live.values()) {
+            final Source source = new Source(reader, entry);
+            if (!merged.containsKey(entry.name())) {
+                merged.put(entry.name(), source);
+                continue;
+            }
+            if (entry.isDirectory())
+                continue;
+            conflicts++;
+            switch (rule) {
+                case FIRST:
+                    break;
+                case LAST:
+                    merged.put(entry.name(), source);
+                    break;
+                case RENAME:
+                    merged.put(rename(entry.name()), source);
+                    break;
+                case FAIL:
+                    throw new ZipException(String.format("Entry %s of %s already exists", entry.name(), archive));
+            }
+        }
+    }
+
+    /**
+     * Returns the first free name made by inserting "~n" before the name's extension, from n = 2.
+     */
+    private String rename(final String name) {
+        final int slash = name.lastIndexOf('/');
+        final int dot = name.lastIndexOf('.');
+        final int insert = dot > slash + 1 ? dot : name.length();
+        for (int n = 2; ; n++) {
+            final String candidate = name.substring(0, insert) + "~" + n + name.substring(insert);
+            if (!merged.containsKey(candidate))
+                return candidate;
+        }
+    }
+
+    /**
+     * Writes the merged archive. It is first written beside the target, and then replaces it, so the target
+     * may also be one of the inputs.
+     * @param target Path of the merged archive
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    void writeTo(final Path target) throws IOException {
+        final Path merging = target.resolveSibling(target.getFileName() + ".merging");
+        try {
+            try (ZipWriter writer = new ZipWriter(merging)) {
+                for (Map.Entry<String, Source> e : merged.entrySet()) {
+                    final Source source = e.getValue();
+                    final ArchiveEntry entry = source.entry;
+                    final long dataOffset = source.reader.dataOffset(entry);
+                    writer.write(entry.copy(e.getKey(), entry.dosTime(),
+                            new ChannelRegion(source.reader.channel(), dataOffset, entry.compressedSize())));
+                }
+            }
+            Files.move(merging, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(merging);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the merged archive.
+     * @return Number of entries
+     */
+    int entries() {
+        return merged.size();
+    }
+
+    /**
+     * Returns the total uncompressed size of the entries in the merged archive.
+     * @return Number of bytes
+     */
+    long bytes() {
+        return merged.values().stream().mapToLong(source -> source.entry.size()).sum();
+    }
+
+    /**
+     * Returns the number of conflicts found, i.e. of files in later inputs with names already added.
+     * @return Number of conflicts
+     */
+    int conflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Closes all inputs.
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ZipReader reader : inputs) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,248 @@
+package lb.zipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import static lb.zipp.ZipFormat.*;
+
+/**
+ * Reads the central directory of an existing zip archive, and locates entry data, using positional reads
+ * on a {@link FileChannel} only. Zip64 archives are supported; multi-disk archives are not.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ZipReader implements Closeable {
+    private final Path path;
+    private final FileChannel channel;
+    private final List<ArchiveEntry> entries;
+    private final long centralDirectoryOffset;
+
+    /**
+     * Opens the given archive and reads its central directory.
+     * @param archive Path of the archive
+     * @throws IOException Thrown on any underlying IO errors, or if the archive is invalid
+     */
+    ZipReader(final Path archive) throws IOException {
+        path = archive;
+        channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            final ByteBuffer end = findEndRecord();
+            long count = end.getShort(10) & 0xFFFF;
+            long cdSize = end.getInt(12) & 0xFFFFFFFFL;
+            long cdOffset = end.getInt(16) & 0xFFFFFFFFL;
+            final long endOffset = end.getLong(end.limit() - 8);
+
+            if (count == ZIP64_MAGICCOUNT || cdSize == ZIP64_MAGICVAL || cdOffset == ZIP64_MAGICVAL) {
+                final ByteBuffer loc = read(endOffset - ZIP64_LOCHDR, ZIP64_LOCHDR);
+                if (loc.getInt(0) == ZIP64_LOCSIG) {
+                    final ByteBuffer end64 = read(loc.getLong(8), ZIP64_ENDHDR);
+                    if (end64.getInt(0) != ZIP64_ENDSIG)
+                        throw new ZipException("Invalid zip64 end of central directory record");
+                    count = end64.getLong(32);
+                    cdSize = end64.getLong(40);
+                    cdOffset = end64.getLong(48);
+                }
+            }
+            centralDirectoryOffset = cdOffset;
+            entries = Collections.unmodifiableList(readCentralDirectory(cdOffset, cdSize, count));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns all entries, in central directory order, with their local header offsets.
+     * @return Unmodifiable list of entries
+     */
+    List<ArchiveEntry> entries() {
+        return entries;
+    }
+
+    /**
+     * Returns the offset of the central directory, i.e. the end of the entry data.
+     * @return Central directory offset
+     */
+    long centralDirectoryOffset() {
+        return centralDirectoryOffset;
+    }
+
+    /**
+     * Returns the path of the archive.
+     * @return Path, as given when opened
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Returns the channel of the archive, for positional reads of entry data.
+     * @return Archive channel
+     */
+    FileChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Reads the local header of the given entry, and returns the offset of its data.
+     * @param entry Entry of this archive
+     * @return Offset of the first byte of the entry's (compressed) data
+     * @throws IOException Thrown on any underlying IO errors, or if the local header is invalid
+     */
+    long dataOffset(final ArchiveEntry entry) throws IOException {
+        final ByteBuffer loc = read(entry.offset(), LOCHDR);
+        if (loc.getInt(0) != LOCSIG)
+            throw new ZipException("Invalid local header for " + entry.name());
+        return entry.offset() + LOCHDR + (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+    }
+
+    /**
+     * Reads the local header of the given entry, checks that it agrees with the central directory, and returns
+     * the offset of the entry's data. Where the local header defers the CRC and sizes to a data descriptor,
+     * only the name and method are checked.
+     * @param entry Entry of this archive
+     * @return Offset of the first byte of the entry's (compressed) data
+     * @throws IOException Thrown on any underlying IO errors, or if the local header is invalid or disagrees
+     */
+    long checkLocalHeader(final ArchiveEntry entry) throws IOException {
+        final ByteBuffer loc = read(entry.offset(), LOCHDR);
+        if (loc.getInt(0) != LOCSIG)
+            throw new ZipException("Invalid local header for " + entry.name());
+        final int flags = loc.getShort(6) & 0xFFFF;
+        final int method = loc.getShort(8) & 0xFFFF;
+        final long crc = loc.getInt(14) & 0xFFFFFFFFL;
+        long compressedSize = loc.getInt(18) & 0xFFFFFFFFL;
+        long size = loc.getInt(22) & 0xFFFFFFFFL;
+        final int nameLength = loc.getShort(26) & 0xFFFF;
+        final int extraLength = loc.getShort(28) & 0xFFFF;
+        final ByteBuffer var = read(entry.offset() + LOCHDR, nameLength + extraLength);
+
+        final byte[] name = new byte[nameLength];
+        var.get(name);
+        if (!new String(name, StandardCharsets.UTF_8).equals(entry.name()))
+            throw new ZipException(String.format("Local header name %s differs from %s",
+                    new String(name, StandardCharsets.UTF_8), entry.name()));
+        if (method != entry.method())
+            throw new ZipException("Local header method differs for " + entry.name());
+
+        if ((flags & FLAG_DATA_DESCRIPTOR) == 0) {
+            // The local Zip64 extended information holds both sizes
+            int extra = nameLength;
+            while (extra + 4 <= nameLength + extraLength) {
+                final int id = var.getShort(extra) & 0xFFFF;
+                final int length = var.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTID && length >= 16) {
+                    size = var.getLong(extra + 4);
+                    compressedSize = var.getLong(extra + 12);
+                }
+                extra += 4 + length;
+            }
+            if (crc != entry.crc() || size != entry.size() || compressedSize != entry.compressedSize())
+                throw new ZipException("Local header CRC or sizes differ for " + entry.name());
+        }
+        return entry.offset() + LOCHDR + nameLength + extraLength;
+    }
+
+    /**
+     * Locates the end of central directory record, searching backwards past any archive comment.
+     * @return Buffer holding the record, followed by its offset as a long
+     */
+    private ByteBuffer findEndRecord() throws IOException {
+        final long fileSize = channel.size();
+        final int tail = (int) Math.min(fileSize, ENDHDR + 0xFFFF);
+        final ByteBuffer buf = read(fileSize - tail, tail);
+        for (int i = tail - ENDHDR; i >= 0; i--) {
+            if (buf.getInt(i) == ENDSIG) {
+                final ByteBuffer end = allocate(ENDHDR + 8);
+                for (int j = 0; j < ENDHDR; j++)
+                    end.put(buf.get(i + j));
+                end.putLong(fileSize - tail + i);
+                end.flip();
+                return end;
+            }
+        }
+        throw new ZipException("End of central directory record not found; not a zip archive?");
+    }
+
+    private List<ArchiveEntry> readCentralDirectory(final long cdOffset, final long cdSize, final long count)
+            throws IOException {
+        if (cdSize > Integer.MAX_VALUE)
+            throw new ZipException("Central directory too large");
+        final ByteBuffer cd = read(cdOffset, (int) cdSize);
+        final List<ArchiveEntry> result = new ArrayList<>((int) Math.min(count, 1 << 20));
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (cd.getInt(pos) != CENSIG)
+                throw new ZipException("Invalid central directory header at entry " + i);
+            final int flags = cd.getShort(pos + 8) & 0xFFFF;
+            final int method = cd.getShort(pos + 10) & 0xFFFF;
+            final long dosTime = cd.getInt(pos + 12) & 0xFFFFFFFFL;
+            final long crc = cd.getInt(pos + 16) & 0xFFFFFFFFL;
+            long compressedSize = cd.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = cd.getInt(pos + 24) & 0xFFFFFFFFL;
+            final int nameLength = cd.getShort(pos + 28) & 0xFFFF;
+            final int extraLength = cd.getShort(pos + 30) & 0xFFFF;
+            final int commentLength = cd.getShort(pos + 32) & 0xFFFF;
+            long offset = cd.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            final byte[] name = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++)
+                name[j] = cd.get(pos + CENHDR + j);
+
+            // Zip64 extended information holds, in order, only those values whose field is 0xFFFFFFFF
+            int extra = pos + CENHDR + nameLength;
+            final int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                final int id = cd.getShort(extra) & 0xFFFF;
+                final int length = cd.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTID) {
+                    int p = extra + 4;
+                    if (size == ZIP64_MAGICVAL) {
+                        size = cd.getLong(p);
+                        p += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGICVAL) {
+                        compressedSize = cd.getLong(p);
+                        p += 8;
+                    }
+                    if (offset == ZIP64_MAGICVAL)
+                        offset = cd.getLong(p);
+                }
+                extra += 4 + length;
+            }
+
+            result.add(ArchiveEntry.existing(new String(name, StandardCharsets.UTF_8), flags, method,
+                    crc, size, compressedSize, dosTime, offset));
+            pos += CENHDR + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    /**
+     * Reads the given range of the archive, using a positional read.
+     */
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buf = allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                throw new ZipException("Unexpected end of archive");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,577 @@
+package lb.zipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipException;
+
+import static lb.zipp.ZipFormat.*;
+
+/**
+ * Sequential zip archive writer on top of a {@link FileChannel}, or of any other {@link WritableByteChannel},
+ * e.g. a socket, as nothing is ever written out of order.
+ * <p>
+ * Entries are compressed elsewhere (typically by parallel workers) and handed to {@link #write(ArchiveEntry)}.
+ * A single writer thread appends each local header and its data to the archive in the order received,
+ * and {@link #close()} finally writes the central directory, all in one pass over the file.
+ * Zip64 records are written where sizes, offsets or the entry count require them.
+ * <p>
+ * A writer may also append to an existing archive: new entries then overwrite the old central directory,
+ * and entries they supersede are left in place, unreferenced, until the archive is {@link #compact(Path) compacted}.
+ * This is done in a copy of the archive, which replaces it only when complete, so the archive stays valid
+ * if the writer fails, or is killed.
+ * <p>
+ * For long runs, a writer may periodically write a {@link #withCheckpoint(Path, long) checkpoint}: the central
+ * directory of the entries written so far, in a file of its own. After an interrupted run, the archive is
+ * {@link #restore(Path, Path) restored} from its checkpoint, and can then be appended to.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ZipWriter implements Closeable {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final FileChannel file; // null when writing to a stream
+    private final Path updating; // Copy being written, replacing the target when closed; null unless updating
+    private final Path target;
+    private final ExecutorService writerThread =
+            Executors.newSingleThreadExecutor(r -> {
+                final Thread t = new Thread(r, "zipp-writer");
+                t.setDaemon(true);
+                return t;
+            });
+    private final Map<String, ArchiveEntry> written = new LinkedHashMap<>(); // Only accessed by the writer thread
+    private final Set<ArchiveEntry> kept = new HashSet<>(); // Existing entries, whose local headers are not ours
+    private final Set<String> directories = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private Metrics metrics = new Metrics();
+    private Path checkpoint; // null unless checkpointing
+    private long checkpointInterval;
+    private long lastCheckpoint;
+    private long position;
+
+    /**
+     * Creates a new, empty, archive at the given path. Any existing file is truncated.
+     * @param archive Path of the archive
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    ZipWriter(final Path archive) throws IOException {
+        channel = file = FileChannel.open(archive, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        updating = target = null;
+    }
+
+    /**
+     * Creates a new archive, written as a stream to the given channel. Offsets are counted from the first byte
+     * written. The channel must be blocking, and is not closed by this writer. Entries cannot be
+     * {@link #writeCopy(ArchiveEntry, String, long) copied}, as the archive cannot be read back.
+     * @param out Channel receiving the archive
+     */
+    ZipWriter(final WritableByteChannel out) {
+        channel = out;
+        file = null;
+        updating = target = null;
+    }
+
+    /**
+     * Opens an existing archive for appending. The entries of the existing archive are copied, as is, to its
+     * {@link #updatingPath(Path) updating} copy, and new entries are written there, from the start of the existing
+     * central directory; all existing entries are kept, unless superseded by a new entry of the same name. The
+     * copy replaces the archive when closed; until then, the archive is left untouched.
+     * <p>
+     * If the existing archive is the updating copy itself, e.g. restored from a checkpoint, it is appended to
+     * as is.
+     * @param archive Path of the archive
+     * @param existing Reader of the existing archive, or of its updating copy
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    ZipWriter(final Path archive, final ZipReader existing) throws IOException {
+        target = archive;
+        updating = updatingPath(archive);
+        position = existing.centralDirectoryOffset();
+        if (Files.exists(updating) && Files.isSameFile(existing.path(), updating)) {
+            channel = file = FileChannel.open(updating, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } else {
+            channel = file = FileChannel.open(updating, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                for (long done = 0; done < position; )
+                    done += existing.channel().transferTo(done, position - done, file);
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                Files.deleteIfExists(updating);
+                throw e;
+            }
+        }
+        file.position(position);
+        for (ArchiveEntry entry : existing.entries()) {
+            written.put(entry.name(), entry);
+            kept.add(entry);
+            if (entry.isDirectory())
+                directories.add(entry.name());
+        }
+    }
+
+    /**
+     * Returns the path of the copy of an archive being updated, e.g. "backup.zip.updating" for "backup.zip".
+     * @param archive Path of the archive
+     * @return Path of its updating copy
+     */
+    static Path updatingPath(final Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ".updating");
+    }
+
+    /**
+     * Records the time spent writing, the entries written, and the writer's queue depth, in the given metrics.
+     * Must be called before any entry is queued.
+     * @param metrics Metrics to record in
+     * @return This writer
+     */
+    ZipWriter withMetrics(final Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Requests that a checkpoint is written, by the writer thread, whenever the given interval has passed since the
+     * last one, and that it is deleted when the archive has been closed. Must be called before any entry is queued.
+     * @param checkpoint Path of the checkpoint file
+     * @param intervalNanos Least time between checkpoints
+     * @return This writer
+     */
+    ZipWriter withCheckpoint(final Path checkpoint, final long intervalNanos) {
+        if (file == null)
+            throw new UnsupportedOperationException("A streamed archive cannot be checkpointed");
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = intervalNanos;
+        this.lastCheckpoint = System.nanoTime();
+        return this;
+    }
+
+    /**
+     * Queues a (directory) entry for each ancestor of the given entry name, unless already added.
+     * @param entryName Entry name, using '/' as separator
+     * @param dosTime Modification time for new directory entries, in MS-DOS format
+     */
+    void addDirectories(final String entryName, final long dosTime) {
+        final int last = entryName.lastIndexOf('/');
+        if (last <= 0 || directories.contains(entryName.substring(0, last + 1)))
+            return; // The parent, and so all its ancestors, have been added already
+        for (int slash = entryName.indexOf('/'); slash > 0; slash = entryName.indexOf('/', slash + 1)) {
+            final String dirName = entryName.substring(0, slash + 1);
+            if (directories.add(dirName))
+                write(ArchiveEntry.directory(dirName, dosTime));
+        }
+    }
+
+    /**
+     * Queues an entry, with its compressed data, for writing by the writer thread. If the entry's data cannot
+     * be read when written, e.g. as its file has changed, the entry is left out of an archive file, and only
+     * its future fails; otherwise, the whole archive fails.
+     * @param entry Entry to append
+     * @return Future completed when the entry has been written
+     */
+    CompletableFuture<ArchiveEntry> write(final ArchiveEntry entry) {
+        metrics.enqueued(Metrics.Queue.WRITE, 1);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                writeEntry(entry);
+                return entry;
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+                throw new UncheckedIOException(e);
+            }
+        }, writerThread);
+    }
+
+    /**
+     * Tells whether writing has failed, so that the archive cannot be completed.
+     * @return True if failed
+     */
+    boolean failed() {
+        return failure.get() != null;
+    }
+
+    /**
+     * Queues a batch of entries, with their compressed data, for writing by the writer thread, in one task.
+     * @param entries Entries to append, in order
+     * @return Future completed when all entries have been written
+     */
+    CompletableFuture<List<ArchiveEntry>> writeAll(final List<ArchiveEntry> entries) {
+        metrics.enqueued(Metrics.Queue.WRITE, entries.size());
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                for (ArchiveEntry entry : entries)
+                    writeEntry(entry);
+                return entries;
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+                throw new UncheckedIOException(e);
+            }
+        }, writerThread);
+    }
+
+    /**
+     * Queues a new entry with the same data as an entry already written to this archive, e.g. for a file with
+     * the same contents. The writer thread copies the data within the archive.
+     * @param original Entry already written
+     * @param name Name of the new entry
+     * @param dosTime Modification time of the new entry, in MS-DOS format
+     * @return Future completed when the entry has been written
+     */
+    CompletableFuture<ArchiveEntry> writeCopy(final ArchiveEntry original, final String name, final long dosTime) {
+        if (file == null)
+            throw new UnsupportedOperationException("Entries cannot be copied within a streamed archive");
+        final long dataOffset = original.offset() + localHeaderSize(original);
+        return write(original.copy(name, dosTime, new ArchiveRegion(dataOffset, original.compressedSize())));
+    }
+
+    /**
+     * Data already written to this archive. It is copied with positional reads, as transferring data
+     * within one channel is not supported everywhere.
+     */
+    private final class ArchiveRegion implements EntryData {
+        private final long position;
+        private final long size;
+
+        ArchiveRegion(final long position, final long size) {
+            this.position = position;
+            this.size = size;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void writeTo(final WritableByteChannel out) throws IOException {
+            final ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(size, COPY_BUFFER_SIZE));
+            for (long done = 0; done < size; ) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), size - done));
+                while (buf.hasRemaining()) {
+                    if (file.read(buf, position + done + buf.position()) < 0)
+                        throw new IOException("Unexpected end of archive while copying entry data");
+                }
+                buf.flip();
+                done += buf.remaining();
+                while (buf.hasRemaining())
+                    out.write(buf);
+            }
+        }
+
+        @Override
+        public void release() {
+            // Nothing held
+        }
+    }
+
+    private static int localHeaderSize(final ArchiveEntry entry) {
+        final int nameLength = entry.name().getBytes(StandardCharsets.UTF_8).length;
+        final boolean zip64 = entry.size() >= ZIP64_MAGICVAL || entry.compressedSize() >= ZIP64_MAGICVAL;
+        return LOCHDR + nameLength + (zip64 ? 20 : 0);
+    }
+
+    /**
+     * Appends the local header and data of one entry. Called on the writer thread only.
+     * @param entry Entry to append
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    private void writeEntry(final ArchiveEntry entry) throws IOException {
+        metrics.dequeued(Metrics.Queue.WRITE);
+        if (failure.get() != null)
+            throw new IOException("Archive writer has failed", failure.get());
+
+        final byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        final boolean zip64 = entry.size() >= ZIP64_MAGICVAL || entry.compressedSize() >= ZIP64_MAGICVAL;
+        final ByteBuffer hdr = allocate(localHeaderSize(entry));
+        hdr.putInt(LOCSIG)
+                .putShort((short) versionNeeded(entry.method(), zip64))
+                .putShort((short) (entry.flags() & ~FLAG_DATA_DESCRIPTOR))
+                .putShort((short) entry.method())
+                .putInt((int) entry.dosTime())
+                .putInt((int) entry.crc())
+                .putInt((int) (zip64 ? ZIP64_MAGICVAL : entry.compressedSize()))
+                .putInt((int) (zip64 ? ZIP64_MAGICVAL : entry.size()))
+                .putShort((short) name.length)
+                .putShort((short) (zip64 ? 20 : 0))
+                .put(name);
+        if (zip64) {
+            hdr.putShort((short) ZIP64_EXTID)
+                    .putShort((short) 16)
+                    .putLong(entry.size())
+                    .putLong(entry.compressedSize());
+        }
+        hdr.flip();
+
+        final long start = System.nanoTime();
+        final long offset = position;
+        writeFully(hdr);
+        if (entry.data() != null) {
+            try {
+                entry.data().writeTo(channel);
+            } catch (IOException e) {
+                if (file == null)
+                    throw e; // A stream cannot be rolled back
+                rollBack(entry, offset);
+                throw new UncheckedIOException(e); // Fails this entry only
+            }
+            position += entry.data().size();
+        }
+        entry.written(offset);
+        written.put(entry.name(), entry);
+        metrics.record(Metrics.Phase.WRITE, start, entry.timing());
+        metrics.written(entry);
+        if (checkpoint != null && System.nanoTime() - lastCheckpoint >= checkpointInterval)
+            writeCheckpoint();
+    }
+
+    /**
+     * Drops the local header and any data written of an entry whose data could not be copied, e.g. from a file
+     * which has changed, so that the archive goes on from where the entry began.
+     */
+    private void rollBack(final ArchiveEntry entry, final long offset) throws IOException {
+        entry.data().release();
+        file.truncate(offset);
+        file.position(offset);
+        position = offset;
+    }
+
+    private void writeFully(final ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining())
+            position += channel.write(bb);
+    }
+
+    /**
+     * Writes the central directory record of one entry to the given buffer, with the given flags, which must
+     * agree with those of its local header.
+     */
+    private static void writeCentralHeader(final ArchiveEntry entry, final int flags, final EntryBuffer out) {
+        final byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        final boolean sizes64 = entry.size() >= ZIP64_MAGICVAL || entry.compressedSize() >= ZIP64_MAGICVAL;
+        final boolean offset64 = entry.offset() >= ZIP64_MAGICVAL;
+        final int extraLength = (sizes64 || offset64) ? 4 + (sizes64 ? 16 : 0) + (offset64 ? 8 : 0) : 0;
+        final int version = versionNeeded(entry.method(), extraLength > 0);
+
+        final ByteBuffer hdr = allocate(CENHDR + name.length + extraLength);
+        hdr.putInt(CENSIG)
+                .putShort((short) version)      // version made by
+                .putShort((short) version)      // version needed to extract
+                .putShort((short) flags)
+                .putShort((short) entry.method())
+                .putInt((int) entry.dosTime())
+                .putInt((int) entry.crc())
+                .putInt((int) (sizes64 ? ZIP64_MAGICVAL : entry.compressedSize()))
+                .putInt((int) (sizes64 ? ZIP64_MAGICVAL : entry.size()))
+                .putShort((short) name.length)
+                .putShort((short) extraLength)
+                .putShort((short) 0)            // comment length
+                .putShort((short) 0)            // disk number start
+                .putShort((short) 0)            // internal attributes
+                .putInt(entry.isDirectory() ? DOS_ATTR_DIRECTORY : 0)
+                .putInt((int) (offset64 ? ZIP64_MAGICVAL : entry.offset()))
+                .put(name);
+        if (extraLength > 0) {
+            hdr.putShort((short) ZIP64_EXTID).putShort((short) (extraLength - 4));
+            if (sizes64)
+                hdr.putLong(entry.size()).putLong(entry.compressedSize());
+            if (offset64)
+                hdr.putLong(entry.offset());
+        }
+        out.write(hdr.array(), 0, hdr.position());
+    }
+
+    /**
+     * Writes the central directory and end records. Called on the writer thread only.
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    private void writeCentralDirectory() throws IOException {
+        final EntryBuffer cd = centralDirectory(position);
+        cd.writeTo(channel);
+        position += cd.size();
+        if (file != null)
+            file.truncate(position); // Drop any remains of a previous, longer, central directory
+        if (checkpoint != null || updating != null)
+            file.force(true); // Before the checkpoint is deleted, or the copy replaces the archive
+    }
+
+    /**
+     * Writes a checkpoint: the central directory of the entries written so far, as if written at the current
+     * position. The archive is forced to disk first, so that the checkpoint never refers to data which may be
+     * lost, and the checkpoint then replaces the previous one atomically.
+     */
+    private void writeCheckpoint() throws IOException {
+        file.force(false);
+        final Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            centralDirectory(position).writeTo(out);
+            out.force(false);
+        }
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Restores an archive from its checkpoint, after an interrupted run. The archive is truncated where the
+     * checkpoint's central directory begins, i.e. after the last entry it covers, which drops any entry written
+     * only in part, and the central directory is appended, so that the archive is valid, and can be appended to.
+     * @param archive Path of the archive
+     * @param checkpoint Path of its checkpoint
+     * @throws IOException Thrown on any underlying IO errors, or if the checkpoint does not fit the archive
+     */
+    static void restore(final Path archive, final Path checkpoint) throws IOException {
+        final byte[] cd = Files.readAllBytes(checkpoint);
+        final ByteBuffer end = ByteBuffer.wrap(cd).order(ByteOrder.LITTLE_ENDIAN);
+        if (cd.length < ENDHDR || end.getInt(cd.length - ENDHDR) != ENDSIG)
+            throw new ZipException("Invalid checkpoint " + checkpoint);
+        long cdOffset = end.getInt(cd.length - ENDHDR + 16) & 0xFFFFFFFFL;
+        if (cdOffset == ZIP64_MAGICVAL) {
+            final int end64 = cd.length - ENDHDR - ZIP64_LOCHDR - ZIP64_ENDHDR;
+            if (end64 < 0 || end.getInt(end64) != ZIP64_ENDSIG)
+                throw new ZipException("Invalid checkpoint " + checkpoint);
+            cdOffset = end.getLong(end64 + 48);
+        }
+        try (FileChannel out = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+            if (out.size() < cdOffset)
+                throw new ZipException(String.format("Checkpoint %s does not fit archive %s", checkpoint, archive));
+            out.truncate(cdOffset);
+            out.position(cdOffset);
+            end.position(0);
+            while (end.hasRemaining())
+                out.write(end);
+            out.force(false);
+        }
+    }
+
+    /**
+     * Returns the central directory of the entries written so far, followed by the end records, for a
+     * central directory at the given offset.
+     */
+    private EntryBuffer centralDirectory(final long cdOffset) {
+        final EntryBuffer cd = new EntryBuffer();
+        for (ArchiveEntry entry : written.values()) {
+            // Entries written here never have a data descriptor, while existing ones keep theirs
+            final int flags = kept.contains(entry) ? entry.flags() : entry.flags() & ~FLAG_DATA_DESCRIPTOR;
+            writeCentralHeader(entry, flags, cd);
+        }
+        final long cdSize = cd.size();
+        final long count = written.size();
+
+        final boolean zip64 = count >= ZIP64_MAGICCOUNT || cdSize >= ZIP64_MAGICVAL || cdOffset >= ZIP64_MAGICVAL;
+        final ByteBuffer end = allocate((zip64 ? ZIP64_ENDHDR + ZIP64_LOCHDR : 0) + ENDHDR);
+        if (zip64) {
+            final long zip64EndOffset = cdOffset + cdSize;
+            end.putInt(ZIP64_ENDSIG)
+                    .putLong(ZIP64_ENDHDR - 12)         // size of remaining record
+                    .putShort((short) VERSION_ZIP64)
+                    .putShort((short) VERSION_ZIP64)
+                    .putInt(0)                          // number of this disk
+                    .putInt(0)                          // disk with central directory
+                    .putLong(count)
+                    .putLong(count)
+                    .putLong(cdSize)
+                    .putLong(cdOffset);
+            end.putInt(ZIP64_LOCSIG)
+                    .putInt(0)                          // disk with zip64 end record
+                    .putLong(zip64EndOffset)
+                    .putInt(1);                         // total number of disks
+        }
+        end.putInt(ENDSIG)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) Math.min(count, ZIP64_MAGICCOUNT))
+                .putShort((short) Math.min(count, ZIP64_MAGICCOUNT))
+                .putInt((int) Math.min(cdSize, ZIP64_MAGICVAL))
+                .putInt((int) Math.min(cdOffset, ZIP64_MAGICVAL))
+                .putShort((short) 0);                   // comment length
+        cd.write(end.array(), 0, end.position());
+        return cd;
+    }
+
+    /**
+     * Waits for all queued entries to be written, then writes the central directory and closes the archive.
+     * @throws IOException Thrown on any underlying IO errors, including failures of earlier queued writes
+     */
+    @Override
+    public void close() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            final CompletableFuture<Void> finish = CompletableFuture.runAsync(() -> {
+                try {
+                    if (failure.get() == null)
+                        writeCentralDirectory();
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, writerThread);
+            writerThread.shutdown();
+            finish.join();
+            writerThread.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            if (file != null)
+                file.close();
+            metrics.record(Metrics.Phase.CLOSE, start, null);
+        }
+        final Throwable t = failure.get();
+        if (t != null) {
+            if (updating != null && checkpoint == null)
+                Files.deleteIfExists(updating); // The archive is left as it was; a checkpointed copy is resumed
+            throw t instanceof IOException ? (IOException) t : new IOException(t);
+        }
+        if (updating != null)
+            Files.move(updating, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (checkpoint != null)
+            Files.deleteIfExists(checkpoint); // The archive is complete
+    }
+
+    /**
+     * Rewrites the given archive without the data of superseded entries. The compressed data of all live
+     * entries is copied as is, and the result replaces the original archive.
+     * @param archive Path of the archive
+     * @return Number of bytes reclaimed
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    static long compact(final Path archive) throws IOException {
+        final Path compacted = archive.resolveSibling(archive.getFileName() + ".compacting");
+        try {
+            try (ZipReader reader = new ZipReader(archive);
+                 ZipWriter writer = new ZipWriter(compacted)) {
+                for (ArchiveEntry entry : reader.entries()) {
+                    final long dataOffset = reader.dataOffset(entry);
+                    writer.write(entry.withData(new ChannelRegion(reader.channel(), dataOffset, entry.compressedSize())));
+                }
+            }
+            final long reclaimed = Files.size(archive) - Files.size(compacted);
+            Files.move(compacted, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return reclaimed;
+        } finally {
+            Files.deleteIfExists(compacted);
+        }
+    }
+}
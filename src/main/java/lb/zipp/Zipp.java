@@ -1,21 +1,30 @@
 package lb.zipp;
 
 import com.sun.management.OperatingSystemMXBean;
-import com.thedeanda.lorem.*;
 import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
-import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
 import java.util.stream.*;
 import static java.util.stream.Collectors.*;
 
 /**
- * This class creates zip archives. Instead of directly using {@link java.util.zip.ZipOutputStream},
- * this implementation uses the jar {@link java.nio.file.FileSystem} available since Java 1.7.<p>
- * The advantage of using a {@code FileSystem} is that it can easily be processed in parallel.<p>
+ * This class creates zip archives. Instead of using {@link java.util.zip.ZipOutputStream}, or the
+ * jar {@link java.nio.file.FileSystem} available since Java 1.7, this implementation compresses each
+ * entry separately and lets a {@link ZipWriter} append the results to the archive file.<p>
+ * The advantage is that the compression can easily be processed in parallel, while the archive itself
+ * is written sequentially, in one pass.<p>
  * This class can create zip archives with parallel execution by combining parallel {@link Stream} processing
- * with the jar {@code FileSystem}.<p>
+ * with the {@code ZipWriter}.<p>
  * This class has a {@link #main(String[])} method which emulates a minimal command-line zip utility, i.e.
  * it can be used to create standard zip archives.
  *
@@ -25,9 +34,55 @@ import static java.util.stream.Collectors.*;
 @SuppressWarnings({"SpellCheckingInspection"})
 public class Zipp implements Closeable {
     private static final int availCPUs = Runtime.getRuntime().availableProcessors();
-    private final FileSystem zipArchive;
+
+    /** Default size of the blocks of a file compressed in parallel */
+    static final long DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /** Default minimum file size for compressing a file's blocks in parallel */
+    static final long DEFAULT_BLOCK_THRESHOLD = 64L << 20;
+
+    /** Default estimated space saving, in percent, below which a file is stored in adaptive mode */
+    static final double DEFAULT_STORE_THRESHOLD = 1.0;
+
+    /** Default size cap of the blob cache */
+    private static final long DEFAULT_CACHE_SIZE = 1L << 30;
+
+    /** Default number of threads traversing directories and reading files, in parallel mode */
+    private static final int DEFAULT_IO_THREADS = 4;
+
+    /** Largest file added by the small-file fast path */
+    private static final int SMALL_FILE_SIZE = 64 * 1024;
+
+    /** Most files, and bytes, of a batch of small files */
+    private static final int BATCH_FILES = 256;
+    private static final int BATCH_BYTES = 1 << 20;
+
+    private final List<ZipWriter> writers = new ArrayList<>();
+    private final List<Path> archives = new ArrayList<>();
+    private final boolean sharded;
+    private final boolean largestFirst;
+    private final boolean test;
+    private final boolean resumed;
+    private ShardPlan shardPlan;
+    private final EntryCompressor compressor;
+    private final MemoryBudget budget;
+    private final WorkerPools pools;
+    private final Executor cpu;
+    private final LongAdder bytesAdded = new LongAdder();
+    private final LongAdder filesAdded = new LongAdder();
+    private final boolean batchSmallFiles;
+    private final Map<Thread, SmallFileBatch> batches = new ConcurrentHashMap<>();
+    private final Deduplicator dedup;
+    private final BlobCache cache;
+    private final Metrics metrics;
+    private final Reporter reporter; // null when quiet
+    private final String metricsFile;
+    private final long beginCPUNanos = processCpuNanos();
     private final boolean recursive;
     private final boolean parallel;
+    private final boolean compact;
+    private final Path zipPath;
+    private final Map<String, ArchiveEntry> existingEntries = new HashMap<>();
 
     private static String getMessage(final Message key) {
         return Message.getMessage(key);
@@ -37,136 +92,876 @@ public class Zipp implements Closeable {
     /**
      * Creates and initialises a Zip archive.
      * @param archiveName name (file path) of the archive
-     * @param options {@link Option}
+     * @param options {@link Option}s, mapped to their values (empty for options without value)
      * @throws IOException Thrown on any underlying IO errors
      */
-    private Zipp(final String archiveName, Option... options) throws IOException {
-        Set<Option> options1 = Collections.unmodifiableSet(Stream.of(options).collect(toSet()));
+    Zipp(final String archiveName, final Map<Option, String> options) throws IOException {
+        Set<Option> options1 = Collections.unmodifiableSet(options.keySet());
         this.recursive = options1.contains(Option.RECURSIVE);
         this.parallel = options1.contains(Option.PARALLEL);
 
-        final Path zipPath = Paths.get(archiveName);
+        final long blockSize = options.containsKey(Option.BLOCK_SIZE)
+                ? Option.parseSize(options.get(Option.BLOCK_SIZE)) : DEFAULT_BLOCK_SIZE;
+        if (blockSize < 64 * 1024 || blockSize > Integer.MAX_VALUE - 8)
+            throw new IllegalOptionException(String.format("Block size must be between 64K and 2G: '%s'", blockSize));
+        final long blockThreshold = options.containsKey(Option.BLOCK_THRESHOLD)
+                ? Option.parseSize(options.get(Option.BLOCK_THRESHOLD)) : DEFAULT_BLOCK_THRESHOLD;
+        final double storeThreshold = options.containsKey(Option.STORE_THRESHOLD)
+                ? parsePercent(options.get(Option.STORE_THRESHOLD)) : DEFAULT_STORE_THRESHOLD;
+        final long maxMemory = options.containsKey(Option.MAX_MEMORY)
+                ? Option.parseSize(options.get(Option.MAX_MEMORY)) : Runtime.getRuntime().maxMemory() / 2;
+        this.budget = new MemoryBudget(maxMemory,
+                options.containsKey(Option.TEMP_DIR) ? Paths.get(options.get(Option.TEMP_DIR)) : null);
+        if (parallel) {
+            this.pools = createPools(options);
+            this.cpu = pools.cpu();
+        } else {
+            this.pools = null;
+            this.cpu = Runnable::run; // Compress on the reading thread
+        }
+        this.metrics = new Metrics(options1.contains(Option.METRICS));
+        this.metricsFile = options.get(Option.METRICS);
+        final Codec codec = createCodec(options);
+        this.compressor = new EntryCompressor(codec,
+                parallel && codec instanceof DeflateCodec
+                        ? new BlockDeflater((int) blockSize, ((DeflateCodec) codec).level(), pools.cpu(), budget)
+                        : null,
+                blockThreshold, options1.contains(Option.ADAPTIVE), storeThreshold, budget, metrics);
+
+        this.compact = options1.contains(Option.COMPACT);
+        this.dedup = options1.contains(Option.DEDUP) ? new Deduplicator() : null;
+        // Stored entries are copied from their files anyway, so only compressed entries are cached
+        this.cache = options1.contains(Option.CACHE) && codec != null
+                ? new BlobCache(Paths.get(options.get(Option.CACHE)),
+                        options1.contains(Option.CACHE_SIZE) ? Option.parseSize(options.get(Option.CACHE_SIZE))
+                                : DEFAULT_CACHE_SIZE,
+                        codec + (options1.contains(Option.ADAPTIVE) ? "-adaptive-" + storeThreshold : ""))
+                : null;
+        this.zipPath = Paths.get(archiveName).toAbsolutePath().normalize();
+
+        System.out.printf(getMessage(Message.working), zipPath, options1);
+        this.reporter = options1.contains(Option.QUIET) ? null : new Reporter(System.out);
+        metrics.register();
+
+        this.sharded = options1.contains(Option.SHARDS);
+        this.largestFirst = options1.contains(Option.LARGEST_FIRST);
+        this.test = options1.contains(Option.TEST);
+        this.batchSmallFiles = !sharded && dedup == null;
+        final boolean checkpointing = options1.contains(Option.CHECKPOINT);
+        final long checkpointNanos = checkpointing
+                ? TimeUnit.SECONDS.toNanos(parseCount(options.get(Option.CHECKPOINT))) : 0;
+        final Path checkpoint = checkpointPath();
+        this.resumed = checkpointing && !sharded && Files.exists(checkpoint) && Files.exists(zipPath);
+        if (sharded) {
+            if (options1.contains(Option.UPDATE) || options1.contains(Option.DEDUP) || checkpointing)
+                throw new IllegalOptionException("Shards cannot be updated, deduplicated or checkpointed");
+            final int shards = parseCount(options.get(Option.SHARDS));
+            final List<Path> shardDirs = options1.contains(Option.SHARD_DIRS)
+                    ? Stream.of(options.get(Option.SHARD_DIRS).split(File.pathSeparator)).map(Paths::get).collect(toList())
+                    : Collections.singletonList(zipPath.getParent());
+            for (int i = 0; i < shards; i++) {
+                final Path dir = shardDirs.get(i % shardDirs.size());
+                Files.createDirectories(dir);
+                archives.add(dir.resolve(shardName(zipPath, "-" + (i + 1))).toAbsolutePath().normalize());
+                writers.add(new ZipWriter(archives.get(i)).withMetrics(metrics));
+            }
+        } else if ((options1.contains(Option.UPDATE) && Files.exists(zipPath)) || resumed) {
+            // Keep the existing entries, and append new or changed entries after them, in a copy of the archive
+            final Path updating = ZipWriter.updatingPath(zipPath);
+            final Path source = resumed && Files.exists(updating) ? updating : zipPath;
+            if (resumed)
+                ZipWriter.restore(source, checkpoint); // Drop the partial tail of the interrupted run
+            try (ZipReader existing = new ZipReader(source)) {
+                for (ArchiveEntry entry : existing.entries())
+                    existingEntries.put(entry.name(), entry);
+                if (resumed)
+                    System.out.printf(getMessage(Message.ckptrsm), checkpoint, existingEntries.size());
+                archives.add(zipPath);
+                writers.add(new ZipWriter(zipPath, existing).withMetrics(metrics));
+            }
+        } else {
+            archives.add(zipPath);
+            writers.add(new ZipWriter(zipPath).withMetrics(metrics));
+        }
+        if (checkpointing)
+            writers.get(0).withCheckpoint(checkpoint, checkpointNanos);
+    }
+
+    /**
+     * Returns the path of the checkpoint of a resumable run, e.g. "backup.zip.checkpoint" for "backup.zip".
+     */
+    private Path checkpointPath() {
+        return zipPath.resolveSibling(zipPath.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * Returns the file name of the archive with the given suffix inserted before its extension,
+     * e.g. "backup-2.zip" for "backup.zip" and "-2".
+     */
+    private static String shardName(final Path zipPath, final String suffix) {
+        final String name = zipPath.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+    }
+
+    /**
+     * Returns the path of the shard manifest, e.g. "backup.manifest" for "backup.zip".
+     */
+    private Path manifestPath() {
+        final String name = zipPath.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return zipPath.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".manifest");
+    }
+
+    /**
+     * Returns the archive files written: the archive, or its shards.
+     * @return Paths of the archives
+     */
+    List<Path> archives() {
+        return Collections.unmodifiableList(archives);
+    }
+
+    /**
+     * Parses a percentage option value.
+     * @param value Option value, e.g. "2.5"
+     * @return Percentage
+     * @throws IllegalOptionException If the value isn't a number between 0 and 100
+     */
+    private static double parsePercent(final String value) {
+        try {
+            final double percent = Double.parseDouble(value);
+            if (percent >= 0 && percent <= 100)
+                return percent;
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        throw new IllegalOptionException(String.format("Invalid percentage '%s'", value));
+    }
 
-        final Map<String, String> zipParams = new HashMap<>();
-        zipParams.put("create", "true");
-//        zipParams.put("useTempFile", "true");
+    /**
+     * Creates the codec given by the method and level options.
+     * @param options {@link Option}s, mapped to their values
+     * @return Codec, or null if all files are stored
+     * @throws IllegalOptionException If the method is unknown, or the level invalid or not applicable
+     */
+    private static Codec createCodec(final Map<Option, String> options) {
+        final String method = options.getOrDefault(Option.METHOD, "deflate");
+        final String level = options.get(Option.LEVEL);
+        switch (method) {
+            case "deflate":
+                return new DeflateCodec(level == null ? Deflater.DEFAULT_COMPRESSION : parseLevel(level));
+            case "store":
+            case "zstd":
+                if (level != null)
+                    throw new IllegalOptionException(String.format("The level cannot be set for method '%s'", method));
+                return method.equals("zstd") ? new ZstdCodec() : null;
+            default:
+                throw new IllegalOptionException(String.format("Unknown method '%s'", method));
+        }
+    }
+
+    /**
+     * Parses a deflate level option value.
+     * @param value Option value, e.g. "6"
+     * @return Level
+     * @throws IllegalOptionException If the value isn't an integer between 0 and 9
+     */
+    private static int parseLevel(final String value) {
+        try {
+            final int level = Integer.parseInt(value);
+            if (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION)
+                return level;
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        throw new IllegalOptionException(String.format("Invalid level '%s'", value));
+    }
 
-        final URI resolvedFileURI = zipPath.toAbsolutePath().toUri();
-        final URI zipURI = URI.create("jar:"+resolvedFileURI);
+    /**
+     * Creates the worker pools of a parallel run, sized as given by the options.
+     * @param options {@link Option}s, mapped to their values
+     * @return New pools
+     */
+    private static WorkerPools createPools(final Map<Option, String> options) {
+        final int threads = options.containsKey(Option.THREADS)
+                ? parseCount(options.get(Option.THREADS)) : availCPUs;
+        final int ioThreads = options.containsKey(Option.IO_THREADS)
+                ? parseCount(options.get(Option.IO_THREADS)) : DEFAULT_IO_THREADS;
+        return new WorkerPools(threads, ioThreads);
+    }
 
-        System.out.printf(getMessage(Message.working), zipURI, options1);
+    /**
+     * Parses a thread count option value.
+     * @param value Option value, e.g. "8"
+     * @return Count
+     * @throws IllegalOptionException If the value isn't a positive integer
+     */
+    private static int parseCount(final String value) {
+        try {
+            final int count = Integer.parseInt(value);
+            if (count > 0)
+                return count;
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        throw new IllegalOptionException(String.format("Invalid count '%s'", value));
+    }
 
-        zipArchive = FileSystems.newFileSystem(zipURI, zipParams);
+    /**
+     * Tells whether the given file is unchanged since it was added as the given, existing, entry.
+     * Size and modification time are compared first; only if these are equal is the CRC computed. When resuming,
+     * the CRC is not computed, as the entry was added by the same job, moments before it was interrupted.
+     */
+    private boolean isUnchanged(final Path f, final ArchiveEntry existing) throws IOException {
+        return existing.size() == Files.size(f)
+                && existing.dosTime() == ZipFormat.javaToDosTime(Files.getLastModifiedTime(f).toMillis())
+                && (resumed || existing.crc() == compressor.checksum(f));
     }
 
     /**
-     * Adds one file to the archive.
+     * Adds one file to the archive. The file is read on the calling thread, and compressed on the
+     * CPU pool; this method returns when the file has been read.
      *
      * @param f
      *            Path of file to add, not null
      */
     private void zipOneFile(final Path f) {
         try {
-            final Path parent = f.getParent();
-            if (parent != null && parent.getNameCount() > 0)
-                Files.createDirectories(zipArchive.getPath(parent.toString()));
-            final Path zipEntryPath = zipArchive.getPath(f.toString());
-            String message = " "+getMessage(Message.adding)+": %s";
-            if (Files.exists(zipEntryPath)) {
-                Files.deleteIfExists(zipEntryPath);
-                message = " "+getMessage(Message.updating)+": %s";
-            }
-            final StringBuilder logbuf = new StringBuilder();
-            try (OutputStream out = Files.newOutputStream(zipEntryPath)) {
-                logbuf.append(String.format(message, f));
-                Files.copy(f, out);
-                out.flush();
-            } catch (Exception e) {
-                System.err.printf("Error adding %s:%n", f);
-                e.printStackTrace(System.err);
+            final String entryName = ZipFormat.entryName(f);
+            final ArchiveEntry existing = existingEntries.get(entryName);
+            if (existing != null && isUnchanged(f, existing))
                 return;
+            final Message message = existing == null ? Message.adding : Message.updating;
+            BasicFileAttributes attrs = null; // Read once, and passed on, when batching
+            long[] timing = null;
+            if (batchSmallFiles) {
+                timing = Metrics.timing();
+                final long start = System.nanoTime();
+                attrs = Files.readAttributes(f, BasicFileAttributes.class);
+                metrics.record(Metrics.Phase.STAT, start, timing);
+                if (attrs.size() <= SMALL_FILE_SIZE) {
+                    addSmallFile(f, entryName, attrs, message, timing);
+                    return;
+                }
             }
-            final long size = (long) Files.getAttribute(zipEntryPath, "zip:size");
-            final long compressedSize = (long) Files.getAttribute(zipEntryPath, "zip:compressedSize");
-            final double compression = (size-compressedSize)*100.0/size;
-            final int method = (int) Files.getAttribute(zipEntryPath, "zip:method");
-            final String methodName = method==0?"stored":method<8?getMessage(Message.compressed):getMessage(Message.deflated);
-            logbuf.append(String.format(" (%4$s %3$.0f%%)", size, compressedSize, compression, methodName));
-            synchronized(System.out) {
-                System.out.println(logbuf);
-            }
+            // No log line is built at all when quiet
+            final StringBuilder logbuf = reporter == null ? null
+                    : new StringBuilder().append(' ').append(getMessage(message)).append(": ").append(f);
+            final ZipWriter writer = shardPlan == null ? writers.get(0) : writers.get(shardPlan.shardOf(f));
+            final CompletableFuture<ArchiveEntry> done = dedup != null
+                    ? addDeduplicated(writer, f, entryName, logbuf)
+                    : compressAndAdd(writer, f, attrs, timing, entryName, logbuf);
+            if (pools != null)
+                pools.track(done);
         } catch (Exception e1) {
             throw new RuntimeException(String.format(" Error accessing zip archive for %s:", f), e1);
         }
     }
 
+    /**
+     * Small files read by one thread, and not yet compressed.
+     */
+    private static final class SmallFileBatch {
+        final List<SmallFile> files = new ArrayList<>();
+        long bytes;
+    }
+
+    /**
+     * A small file, read whole.
+     */
+    private static final class SmallFile {
+        final Path file;
+        final String entryName;
+        final Message message;
+        final long dosTime;
+        final byte[] data;
+        final long[] timing;
+        final String key; // Blob cache key, or null when not caching
+
+        SmallFile(final Path file, final String entryName, final Message message, final long dosTime,
+                  final byte[] data, final long[] timing, final String key) {
+            this.file = file;
+            this.entryName = entryName;
+            this.message = message;
+            this.dosTime = dosTime;
+            this.data = data;
+            this.timing = timing;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Adds a small file by the fast path: the file is read whole, with a single read, into the calling thread's
+     * batch. A full batch is compressed in one task, and its entries written in one task, so the per-file cost
+     * is mostly the open and read. With a blob cache, each file is looked up before it is read; a hit is written
+     * from the cache at once, while a miss is read into the batch, and stored in the cache when compressed.
+     * <p>
+     * A batch is reserved from the memory budget only when flushed, as an idle thread may hold on to its batch
+     * until all files have been read; each thread holds at most one batch.
+     */
+    private void addSmallFile(final Path f, final String entryName, final BasicFileAttributes attrs,
+                              final Message message, final long[] timing)
+            throws IOException, InterruptedException {
+        budget.awaitAvailable(); // Backpressure: wait for the writer to catch up
+        final String key = cache == null ? null : cache.key(f, attrs);
+        final ArchiveEntry cached = key == null ? null : cache.get(key, entryName);
+        if (cached != null) {
+            final StringBuilder logbuf = reporter == null ? null
+                    : new StringBuilder().append(' ').append(getMessage(message)).append(": ").append(f);
+            final CompletableFuture<ArchiveEntry> done =
+                    addEntry(writers.get(0), cached, getMessage(Message.rsncache), logbuf);
+            if (pools != null)
+                pools.track(done);
+            return;
+        }
+        final long start = System.nanoTime();
+        final byte[] data = EntryCompressor.readSmall(f, (int) attrs.size());
+        metrics.record(Metrics.Phase.READ, start, timing);
+        final SmallFileBatch batch = batches.computeIfAbsent(Thread.currentThread(), t -> new SmallFileBatch());
+        batch.files.add(new SmallFile(f, entryName, message,
+                ZipFormat.javaToDosTime(attrs.lastModifiedTime().toMillis()), data, timing, key));
+        batch.bytes += data.length;
+        if (batch.files.size() >= BATCH_FILES || batch.bytes >= BATCH_BYTES) {
+            batches.remove(Thread.currentThread());
+            flush(batch);
+        }
+    }
+
+    /**
+     * Compresses and writes the remaining batches of small files, once all files have been read.
+     */
+    private void flushSmallFiles() throws InterruptedException {
+        for (SmallFileBatch batch : batches.values())
+            flush(batch);
+        batches.clear();
+    }
+
+    /**
+     * Compresses a batch of small files on the CPU pool, then queues their entries for writing in one task. Files which could not be compressed are reported, and left out.
+     */
+    private void flush(final SmallFileBatch batch) throws InterruptedException {
+        final ZipWriter writer = writers.get(0);
+        budget.reserve(batch.bytes);
+        metrics.enqueued(Metrics.Queue.COMPRESS, 1);
+        final CompletableFuture<List<ArchiveEntry>> done = CompletableFuture.supplyAsync(() -> {
+            metrics.dequeued(Metrics.Queue.COMPRESS);
+            final List<ArchiveEntry> entries = new ArrayList<>(batch.files.size());
+            try {
+                for (SmallFile small : batch.files) {
+                    try {
+                        final EntryCompressor.Decision decision =
+                                compressor.decide(small.file, small.data, small.data.length);
+                        ArchiveEntry entry = compressor.compress(small.data, small.entryName, small.dosTime,
+                                decision.method, small.timing);
+                        if (small.key != null)
+                            entry = cache.put(small.key, entry);
+                        writer.addDirectories(entry.name(), entry.dosTime());
+                        entries.add(entry);
+                        bytesAdded.add(entry.size());
+                        filesAdded.increment();
+                        if (reporter != null)
+                            reporter.println(appendLog(new StringBuilder().append(' ')
+                                    .append(getMessage(small.message)).append(": ").append(small.file),
+                                    entry, decision.reason));
+                    } catch (IOException | RuntimeException e) {
+                        System.err.printf("Error adding %s:%n", small.file);
+                        e.printStackTrace(System.err);
+                    }
+                }
+            } finally {
+                budget.release(batch.bytes);
+            }
+            return entries;
+        }, cpu).thenCompose(writer::writeAll);
+        if (pools != null)
+            pools.track(done);
+    }
+
+    /**
+     * Compresses one file, and queues its entry for writing. The file's attributes are read here, unless given.
+     * @return Future of the written entry, completed exceptionally if the file could not be added
+     */
+    private CompletableFuture<ArchiveEntry> compressAndAdd(final ZipWriter writer, final Path f,
+                                                           final BasicFileAttributes attrs, final long[] timing,
+                                                           final String entryName, final StringBuilder logbuf) {
+        CompletableFuture<ArchiveEntry> compressed;
+        String reason = null;
+        try {
+            budget.awaitAvailable(); // Backpressure: wait for the writer to catch up
+            final String key = cache == null ? null : attrs == null ? cache.key(f) : cache.key(f, attrs);
+            final ArchiveEntry cached = key == null ? null : cache.get(key, entryName);
+            if (cached != null) {
+                reason = getMessage(Message.rsncache);
+                compressed = CompletableFuture.completedFuture(cached);
+            } else {
+                final EntryCompressor.Decision decision = compressor.decide(f);
+                reason = decision.reason;
+                compressed = attrs == null ? compressor.compressAsync(f, entryName, decision.method, cpu)
+                        : compressor.compressAsync(f, attrs, timing, entryName, decision.method, cpu);
+                if (key != null)
+                    compressed = compressed.thenApply(entry -> cache.put(key, entry));
+            }
+        } catch (Exception e) {
+            compressed = CompletableFuture.failedFuture(e);
+        }
+        final String logReason = reason;
+        compressed.whenComplete((entry, e) -> {
+            if (e != null) {
+                System.err.printf("Error adding %s:%n", f);
+                e.printStackTrace(System.err);
+            }
+        });
+        return compressed.thenCompose(entry -> addEntry(writer, entry, logReason, logbuf));
+    }
+
+    /**
+     * Adds one file in dedup mode: the file is compressed only if no other file with the same contents has been
+     * added; otherwise its entry is a copy of that file's entry.
+     * @return Future of the written entry, completed exceptionally if the file could not be added
+     */
+    private CompletableFuture<ArchiveEntry> addDeduplicated(final ZipWriter writer, final Path f,
+                                                            final String entryName, final StringBuilder logbuf)
+            throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(f, BasicFileAttributes.class);
+        if (attrs.size() == 0)
+            return compressAndAdd(writer, f, null, null, entryName, logbuf);
+        final CompletableFuture<ArchiveEntry> entry = new CompletableFuture<>();
+        final CompletableFuture<ArchiveEntry> original;
+        try {
+            original = dedup.findOriginal(f, attrs.size(), entry);
+        } catch (IOException e) {
+            return compressAndAdd(writer, f, null, null, entryName, logbuf); // Could not hash, so could not be a duplicate
+        }
+        if (original == null) {
+            compressAndAdd(writer, f, null, null, entryName, logbuf).whenComplete((written, e) -> {
+                if (e != null)
+                    entry.completeExceptionally(e);
+                else
+                    entry.complete(written);
+            });
+            return entry;
+        }
+        final long dosTime = ZipFormat.javaToDosTime(attrs.lastModifiedTime().toMillis());
+        original.whenComplete((written, e) -> {
+            if (e != null)
+                System.err.printf("Error adding %s: its duplicate could not be added%n", f);
+        });
+        return original.thenCompose(written -> {
+            writer.addDirectories(entryName, dosTime);
+            bytesAdded.add(written.size());
+            filesAdded.increment();
+            log(written, String.format(getMessage(Message.rsndup), written.name()), logbuf);
+            return writer.writeCopy(written, entryName, dosTime);
+        });
+    }
+
+    /**
+     * Queues a compressed entry for writing, and logs it. An entry left out by the writer, e.g. as its file has
+     * changed since it was read, is reported, unless the whole archive has failed.
+     * @return Future of the written entry
+     */
+    private CompletableFuture<ArchiveEntry> addEntry(final ZipWriter writer, final ArchiveEntry entry,
+                                                     final String reason, final StringBuilder logbuf) {
+        writer.addDirectories(entry.name(), entry.dosTime());
+        final CompletableFuture<ArchiveEntry> written = writer.write(entry);
+        bytesAdded.add(entry.size());
+        filesAdded.increment();
+        log(entry, reason, logbuf);
+        written.whenComplete((w, e) -> {
+            if (e != null && !writer.failed()) {
+                bytesAdded.add(-entry.size());
+                filesAdded.decrement();
+                System.err.printf("Error adding %s:%n", entry.name());
+                e.printStackTrace(System.err);
+            }
+        });
+        return written;
+    }
+
+    /**
+     * Logs an added entry, with the method, compression and the reason for the method, if any, through the
+     * reporter, unless quiet.
+     */
+    private void log(final ArchiveEntry entry, final String reason, final StringBuilder logbuf) {
+        if (reporter != null)
+            reporter.println(appendLog(logbuf, entry, reason));
+    }
+
+    /**
+     * Appends the method, compression and reason of an added entry to its log line.
+     */
+    private static StringBuilder appendLog(final StringBuilder logbuf, final ArchiveEntry entry, final String reason) {
+        final int method = entry.method();
+        final String methodName = method==0?"stored":method==ZipFormat.ZSTD?"zstd":method<8?getMessage(Message.compressed):getMessage(Message.deflated);
+        return logbuf.append(String.format(" (%2$s %1$.0f%%%3$s)", entry.compression(), methodName,
+                reason == null ? "" : ": " + reason));
+    }
+
     @Override
     public void close() throws IOException {
-        zipArchive.close();
+        if (pools != null) {
+            if (test)
+                printWorkerTimes(pools);
+            pools.close();
+        }
+        if (reporter != null)
+            reporter.close();
+        IOException failure = null;
+        for (ZipWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        metrics.unregister();
+        try {
+            if (failure != null)
+                throw failure;
+            if (test)
+                printMetrics(metrics);
+            if (metricsFile != null)
+                writeMetrics(metrics, metricsFile);
+        } finally {
+            metrics.discardEntries();
+        }
+        if (shardPlan != null) {
+            final long[] loads = shardPlan.loads();
+            System.out.printf(getMessage(Message.shardsd), loads.length, LongStream.of(loads).min().orElse(0),
+                    LongStream.of(loads).max().orElse(0), manifestPath());
+        }
+        if (dedup != null && dedup.duplicates() > 0) {
+            // Estimate the CPU saved from the CPU spent compressing the other files, per byte
+            final long compressedBytes = bytesAdded() - dedup.duplicateBytes();
+            final double cpuNanos = processCpuNanos() - beginCPUNanos - dedup.hashNanos();
+            final double savedNanos = compressedBytes > 0 ? cpuNanos * dedup.duplicateBytes() / compressedBytes : 0;
+            System.out.printf(getMessage(Message.dedupd), dedup.duplicates(), dedup.duplicateBytes(),
+                    (long) (savedNanos / 1E6), dedup.hashNanos() / 1_000_000);
+        }
+        if (cache != null) {
+            cache.close();
+            System.out.printf(getMessage(Message.cached), cache.hits(), cache.misses(), cache.stored(),
+                    cache.evicted());
+        }
+        if (compact) {
+            for (Path archive : archives)
+                compact(archive);
+        }
     }
 
     /**
-     * Adds files, given as a {@link List} of file names, to this Zip archive.
-     * <p>
-     * If the option {@link Option#RECURSIVE} was specified in the constructor,
-     * any directories specified will be traversed and all files found will be added.
-     * <p>
-     * If the option {@link Option#PARALLEL} was specified in the constructor,
-     * all files found will be added in parallel.
-     * @param fileNameArgs List of file names, not null
+     * Prints the busy, CPU and idle time of each worker, so far.
      */
-    private void addFiles(final List<String> fileNameArgs) {
+    private static void printWorkerTimes(final WorkerPools pools) {
+        final long elapsed = pools.elapsedNanos();
+        final Map<String, Long> cpuNanos = pools.cpuNanos();
+        pools.busyNanos().forEach((name, busy) -> System.out.printf(getMessage(Message.tstwrkr), name,
+                busy / 1_000_000, cpuNanos.getOrDefault(name, 0L) / 1_000_000,
+                Math.max(0, elapsed - busy) / 1_000_000, busy * 100.0 / elapsed));
+    }
 
-        final Stream<Path> distinctPaths =
-                fileNameArgs.stream()			// Process file name list
-                        .map(File::new) 				// String -> File
-                        .flatMap(this::filesWalk)		// Find file, or, if recursive, files
-                        .map(Path::normalize) 			// Ensure no contrived paths
-                        .distinct();				    // Only distinct set (implies intermediate list collection)
+    /**
+     * Prints the time spent in each phase, by all threads, and the peak queue depths.
+     */
+    private static void printMetrics(final Metrics metrics) {
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            System.out.printf(getMessage(Message.tstphase), phase.name().toLowerCase(Locale.ROOT),
+                    metrics.nanos(phase) / 1_000_000, metrics.count(phase));
+        }
+        System.out.printf(getMessage(Message.tstqueue), metrics.peak(Metrics.Queue.COMPRESS),
+                metrics.peak(Metrics.Queue.WRITE));
+    }
 
-        // If parallel processing requested, use parallel stream,
-        // else use normal stream.
-        final Stream<Path> streamOfPaths =
-                parallel ? distinctPaths.parallel() : distinctPaths;
+    /**
+     * Writes the metrics as JSON to the given file, or to standard output for "-".
+     */
+    private static void writeMetrics(final Metrics metrics, final String file) throws IOException {
+        if (file.equals("-")) {
+            final Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            metrics.writeJson(out);
+            out.flush();
+        } else {
+            try (Writer out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+                metrics.writeJson(out);
+            }
+        }
+    }
+
+    private static long processCpuNanos() {
+        return ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
 
-        streamOfPaths.forEach(this::zipOneFile); 		// zip them all!
+    /**
+     * Removes the data of superseded entries from the given archive.
+     * @param zipPath Path of the archive
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    private static void compact(final Path zipPath) throws IOException {
+        final long reclaimed = ZipWriter.compact(zipPath);
+        System.out.printf(getMessage(Message.zpcmpct), reclaimed);
     }
 
     /**
-     * If the given {@link File} argument represents a real file (i.e.
-     * {@link Files#isRegularFile(Path, LinkOption...)} returns {@code true}), converts the given file
-     * argument to a {@link Stream} of a single {@link Path} (of the given file
-     * argument).
+     * Merges the given archives into one, copying their compressed data as is; see {@link ZipMerger}.
+     * @param zipPath Path of the merged archive, which may also be one of the inputs
+     * @param inputs Paths of the archives to merge, in order
+     * @param options {@link Option}s, mapped to their values
+     * @return Number of (uncompressed) bytes merged
+     * @throws IOException Thrown on any underlying IO errors, or on a conflict with rule "fail"
+     */
+    static long merge(final Path zipPath, final List<Path> inputs, final Map<Option, String> options)
+            throws IOException {
+        System.out.printf(getMessage(Message.working), zipPath, options.keySet());
+        final ZipMerger.Conflict rule = ZipMerger.Conflict.parse(options.getOrDefault(Option.ON_CONFLICT, "first"));
+        try (ZipMerger merger = new ZipMerger(rule)) {
+            for (Path input : inputs)
+                merger.add(input);
+            merger.writeTo(zipPath);
+            System.out.printf(getMessage(Message.zpmrgd), merger.entries(), inputs.size(), zipPath,
+                    merger.conflicts(), rule.name().toLowerCase(Locale.ROOT));
+            return merger.bytes();
+        }
+    }
+
+    /**
+     * Extracts all entries of the given archive into the given directory.
      * <p>
-     * Else, if {@link Option#RECURSIVE} was specified in the constructor
-     * {@link Zipp#Zipp(String, Option...)}, assumes the file represents a directory and then uses
-     * {@link Files#walk(Path, java.nio.file.FileVisitOption...)} to return a
-     * {@code Stream} of all real files contained within this directory tree.
+     * If the option {@link Option#PARALLEL} is given, entries are extracted concurrently in the CPU pool,
+     * largest first; see {@link ZipExtractor}.
+     * @param zipPath Path of the archive
+     * @param target Target directory
+     * @param options {@link Option}s, mapped to their values
+     * @return Number of (uncompressed) bytes extracted
+     * @throws IOException Thrown on any underlying IO errors, or if any entry could not be extracted
+     * @throws InterruptedException If interrupted while waiting for the workers
+     */
+    static long extract(final Path zipPath, final Path target, final Map<Option, String> options)
+            throws IOException, InterruptedException {
+        System.out.printf(getMessage(Message.working), zipPath, options.keySet());
+        final LongAdder bytesExtracted = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final List<ArchiveEntry> entries;
+        try (ZipReader reader = new ZipReader(zipPath);
+             WorkerPools pools = options.containsKey(Option.PARALLEL) ? createPools(options) : null) {
+            final ZipExtractor extractor = new ZipExtractor(reader, target);
+            entries = extractor.schedule();
+            for (ArchiveEntry entry : entries) {
+                final Runnable task = () -> {
+                    try {
+                        extractor.extract(entry);
+                        bytesExtracted.add(entry.size());
+                        synchronized (System.out) {
+                            System.out.println(getMessage(Message.extracting) + entry.name());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failed.increment();
+                        System.err.printf("Error extracting %s:%n", entry.name());
+                        e.printStackTrace(System.err);
+                    }
+                };
+                if (pools == null || entry.isDirectory())
+                    task.run(); // Directories first, before their files
+                else
+                    pools.track(CompletableFuture.runAsync(task, pools.cpu()));
+            }
+            if (pools != null)
+                pools.awaitCompletion();
+        }
+        if (failed.sum() > 0)
+            throw new IOException(String.format("%d of %d entries could not be extracted", failed.sum(), entries.size()));
+        System.out.printf(getMessage(Message.zpxtrct), entries.size(), target);
+        return bytesExtracted.sum();
+    }
+
+    /**
+     * Verifies all entries of the given archive, printing the outcome and time of each, and a summary.
      * <p>
-     * Returns an empty stream if any errors are encountered.
-     *
-     * @param f
-     *            File, representing a file or directory.
-     * @return Stream of all Paths resolved
+     * If the option {@link Option#PARALLEL} is given, entries are verified concurrently in the CPU pool,
+     * largest first; see {@link EntryDecoder#verify(ArchiveEntry)}.
+     * @param zipPath Path of the archive
+     * @param options {@link Option}s, mapped to their values
+     * @return true if all entries passed
+     * @throws IOException Thrown on any underlying IO errors, e.g. if the central directory can't be read
+     * @throws InterruptedException If interrupted while waiting for the workers
+     */
+    static boolean verify(final Path zipPath, final Map<Option, String> options)
+            throws IOException, InterruptedException {
+        final long begin = System.nanoTime();
+        final LongAdder passed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        try (ZipReader reader = new ZipReader(zipPath);
+             WorkerPools pools = options.containsKey(Option.PARALLEL) ? createPools(options) : null) {
+            final EntryDecoder decoder = new EntryDecoder(reader);
+            final List<ArchiveEntry> entries = new ArrayList<>(reader.entries());
+            entries.sort(Comparator.comparingLong(ArchiveEntry::size).reversed());
+            for (ArchiveEntry entry : entries) {
+                final Runnable task = () -> {
+                    final long start = System.nanoTime();
+                    try {
+                        decoder.verify(entry);
+                        passed.increment();
+                        System.out.printf(getMessage(Message.vfyok), entry.name(), (System.nanoTime() - start) / 1E6);
+                    } catch (IOException | RuntimeException e) {
+                        failed.increment();
+                        System.out.printf(getMessage(Message.vfyfail), entry.name(), e.getMessage());
+                    }
+                };
+                if (pools == null)
+                    task.run();
+                else
+                    pools.track(CompletableFuture.runAsync(task, pools.cpu()));
+            }
+            if (pools != null)
+                pools.awaitCompletion();
+        }
+        System.out.printf(getMessage(Message.vfysum), passed.sum() + failed.sum(), passed.sum(), failed.sum(),
+                (System.nanoTime() - begin) / 1_000_000);
+        return failed.sum() == 0;
+    }
+
+    /**
+     * Adds files, given as file names, e.g. a lazily read {@link PathList}, to this Zip archive.
+     * <p>
+     * If the option {@link Option#RECURSIVE} was specified in the constructor,
+     * any directories specified will be traversed and all files found will be added.
+     * <p>
+     * If the option {@link Option#PARALLEL} was specified in the constructor,
+     * directories will be traversed, and all files found read, in parallel in the I/O pool, while the
+     * files are compressed in the CPU pool; see {@link WorkerPools}.
+     * <p>
+     * Each file is added as soon as it is found; see {@link PathWalker}.
+     * @param fileNameArgs File names, not null, iterated once
+     * @throws InterruptedException If interrupted while waiting for the workers
      */
-    private Stream<Path> filesWalk(final File f) {
-        // If argument is a file, return directly as single-item stream
-        if (f.isFile()) {
-            return Stream.of(f.toPath());
+    void addFiles(final Iterable<String> fileNameArgs) throws InterruptedException, IOException {
+        if (sharded || largestFirst) {
+            addLargestFirst(fileNameArgs);
+            return;
         }
+        final PathWalker walker = new PathWalker(recursive, this::zipOneFile);
+        if (parallel) {
+            walker.walk(fileNameArgs, pools.io());
+            flushSmallFiles();
+            pools.awaitCompletion();
+        } else {
+            walker.walk(fileNameArgs);
+            flushSmallFiles();
+        }
+        if (reporter != null)
+            reporter.flush();
+    }
 
-        // Check if argument is a directory and RECURSIVE option specified
-        if (f.isDirectory() && this.recursive)
+    /**
+     * Adds files largest first, i.e. by LPT (longest processing time) scheduling: all files are found, and their
+     * sizes read, first. Each file is then handed, largest first, to the I/O pool as a task of its own, so that
+     * idle workers steal the remaining files one at a time, and no large file is left to finish last, alone.
+     * <p>
+     * When sharding, the files are also bin-packed by size into the shards, see {@link ShardPlan}, and the
+     * manifest written. All shards are written in parallel, each by its own writer thread.
+     */
+    private void addLargestFirst(final Iterable<String> fileNameArgs) throws InterruptedException, IOException {
+        final Map<Path, Long> files = new ConcurrentHashMap<>();
+        final PathWalker walker = new PathWalker(recursive, f -> {
             try {
-                // Traverse directory and return all files found
-                return Files.walk(f.toPath(), FileVisitOption.FOLLOW_LINKS)
-                        .filter(Files::isRegularFile); // Only return real files
+                files.put(f, Files.size(f));
             } catch (IOException e) {
-                throw new RuntimeException(String.format(getMessage(Message.errtrav), f), e);
+                throw new UncheckedIOException(e);
             }
+        });
+        if (parallel)
+            walker.walk(fileNameArgs, pools.io());
+        else
+            walker.walk(fileNameArgs);
+        final Collection<Path> order;
+        if (sharded) {
+            shardPlan = new ShardPlan(files, archives);
+            shardPlan.writeManifest(manifestPath());
+            order = shardPlan.files();
+        } else {
+            final List<Path> sorted = new ArrayList<>(files.keySet());
+            sorted.sort(Comparator.<Path>comparingLong(files::get).reversed());
+            order = sorted;
+        }
+        for (Path f : order) {
+            if (parallel)
+                pools.track(CompletableFuture.runAsync(() -> zipOneFile(f), pools.io()));
+            else
+                zipOneFile(f);
+        }
+        if (parallel)
+            pools.awaitCompletion(); // All files read, before the last batches are flushed
+        flushSmallFiles();
+        if (parallel)
+            pools.awaitCompletion();
+        if (reporter != null)
+            reporter.flush();
+    }
+
+    /**
+     * Returns the number of (uncompressed) bytes added to the archive.
+     * @return Number of bytes
+     */
+    private long bytesAdded() {
+        return bytesAdded.sum();
+    }
+
+    /**
+     * Returns the number of files added to the archive.
+     * @return Number of files
+     */
+    private long filesAdded() {
+        return filesAdded.sum();
+    }
 
-        // Argument is neither file nor directory: Return empty stream
-        return Stream.empty();
+    /**
+     * Returns the total number of garbage collections, and the total time spent in them, so far.
+     * @return Collection count and time in milliseconds
+     */
+    private static long[] gcTotals() {
+        final long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**
+     * Creates the synthetic corpus requested with {@link Option#GENERATE}, in a new temporary directory which is
+     * deleted on exit.
+     * @param options Options, with the size, count, distribution, mix and seed of the corpus
+     * @return Paths of the files created
+     * @throws IOException Thrown on any underlying IO errors
+     */
+    private static List<String> generate(final Map<Option, String> options) throws IOException {
+        final long size = options.containsKey(Option.GEN_SIZE)
+                ? Option.parseSize(options.get(Option.GEN_SIZE)) : CorpusGenerator.DEFAULT_SIZE;
+        final int files = options.containsKey(Option.GEN_FILES)
+                ? parseCount(options.get(Option.GEN_FILES)) : CorpusGenerator.DEFAULT_FILES;
+        final CorpusGenerator.Distribution distribution = options.containsKey(Option.GEN_DIST)
+                ? CorpusGenerator.parseDistribution(options.get(Option.GEN_DIST)) : CorpusGenerator.Distribution.LOGNORMAL;
+        final double[] mix = CorpusGenerator.parseMix(options.getOrDefault(Option.GEN_MIX, CorpusGenerator.DEFAULT_MIX));
+        final long seed;
+        try {
+            seed = options.containsKey(Option.SEED) ? Long.parseLong(options.get(Option.SEED)) : CorpusGenerator.DEFAULT_SEED;
+        } catch (NumberFormatException e) {
+            throw new IllegalOptionException(String.format("Invalid seed '%s'", options.get(Option.SEED)));
+        }
+        System.out.printf(getMessage(Message.cretemp), files, size >> 20,
+                distribution.name().toLowerCase(Locale.ROOT), seed, availCPUs);
+        final long start = System.nanoTime();
+        final CorpusGenerator generator = new CorpusGenerator(seed, size, files, distribution, mix);
+        final Path directory = Files.createTempDirectory("zipp-corpus");
+        directory.toFile().deleteOnExit(); // Deleted last, after the files registered below
+        final List<Path> paths = generator.generate(directory);
+        paths.forEach(p -> p.toFile().deleteOnExit());
+        System.out.printf(getMessage(Message.gendone), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                generator.bytes(CorpusGenerator.Content.TEXT) >> 20, generator.bytes(CorpusGenerator.Content.RANDOM) >> 20,
+                generator.bytes(CorpusGenerator.Content.PACKED) >> 20);
+        return paths.stream().map(Path::toString).collect(toList());
     }
 
     /**
@@ -188,24 +983,32 @@ public class Zipp implements Closeable {
         boolean generate;
         long beginUserMillis, midUserMillis, endUserMillis;
         long beginCPUNanos, midCPUNanos, endCPUNanos;
+        long filesAdded = -1;
+        long bytesAdded = 0;
+        long[] beginGC = gcTotals();
         beginUserMillis = midUserMillis = System.currentTimeMillis();
         beginCPUNanos = midCPUNanos = ((OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
         try {
-            // This list will eventually contain only the file name arguments
-            final LinkedList<String> fileArgs = Stream.of(args).collect(toCollection(LinkedList::new));
-
-            // Collect all option arguments
-            final List<String> optionArgs = fileArgs.stream().filter(s->s.startsWith("-")).collect(toList());
-
-            // Remove option arguments from file name list
-            fileArgs.removeAll(optionArgs);
-
-            // Parse option arguments and convert to options array. Exceptions might be thrown here.
-            final Option[] options =
-                    optionArgs.stream()
-                            .flatMap(Option::explodeSingleDashOptions)
-                            .map(Option::parseOptionName)
-                            .toArray(Option[]::new);
+            // Parse the arguments in one pass: options, mapped to their values, and file names. Exceptions might be thrown here.
+            final LinkedList<String> fileArgs = new LinkedList<>();
+            final Map<Option, String> options = new EnumMap<>(Option.class);
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("-")) {
+                    fileArgs.add(args[i]);
+                    continue;
+                }
+                for (String o : Option.explodeSingleDashOptions(args[i]).collect(toList())) {
+                    final Option option = Option.parseOptionName(o);
+                    if (option.hasValue() && o.indexOf('=') < 0) { // A short name, e.g. "-@ file"
+                        if (++i == args.length)
+                            throw new IllegalOptionException(String.format("Option '%s' requires a value", o));
+                        options.put(option, args[i]);
+                    } else {
+                        options.put(option, Option.parseOptionValue(o));
+                    }
+                }
+            }
+            final boolean filesFrom = options.containsKey(Option.FILES_FROM);
 
             // Check argument count. At least one zip file and one file/dir to be added to the zip is required.
             if (fileArgs.isEmpty()) {
@@ -214,46 +1017,68 @@ public class Zipp implements Closeable {
 
             final String zipName = fileArgs.removeFirst(); // Remove zip name argument
 
-            generate = Arrays.binarySearch(options, Option.GENERATE) >= 0;
-            test = Arrays.binarySearch(options, Option.TEST) >= 0;
+            // Only compact an existing archive, if no files are given
+            if (fileArgs.isEmpty() && !filesFrom && options.containsKey(Option.COMPACT)) {
+                compact(Paths.get(zipName));
+                return;
+            }
+
+            // Only verify an existing archive, if no files are given
+            final boolean verify = options.containsKey(Option.VERIFY);
+            if (fileArgs.isEmpty() && !filesFrom && verify && !options.containsKey(Option.GENERATE)) {
+                if (!verify(Paths.get(zipName).toAbsolutePath().normalize(), options))
+                    System.exit(3);
+                return;
+            }
+
+            generate = options.containsKey(Option.GENERATE);
+            test = options.containsKey(Option.TEST);
+
+            // Merge the given archives, instead of adding files
+            if (options.containsKey(Option.MERGE)) {
+                if (fileArgs.isEmpty())
+                    throw new NotEnoughArgumentsException(getMessage(Message.noargs));
+                final long bytesMerged = merge(Paths.get(zipName).toAbsolutePath().normalize(),
+                        fileArgs.stream().map(Paths::get).collect(toList()), options);
+                if (test)
+                    printTotals(beginUserMillis, beginCPUNanos, beginGC, -1, bytesMerged);
+                return;
+            }
+
+            // Extract, instead of creating, into the directory given, if any
+            if (options.containsKey(Option.EXTRACT)) {
+                if (fileArgs.size() > 1)
+                    throw new NotEnoughArgumentsException("Only one target directory may be given!");
+                final long bytesExtracted = extract(Paths.get(zipName).toAbsolutePath().normalize(),
+                        Paths.get(fileArgs.isEmpty() ? "." : fileArgs.getFirst()), options);
+                if (test)
+                    printTotals(beginUserMillis, beginCPUNanos, beginGC, -1, bytesExtracted);
+                return;
+            }
             if (generate) {
                 fileArgs.clear();
-                int numTempFiles = availCPUs * 10;
-                System.out.printf(getMessage(Message.cretemp), numTempFiles, availCPUs);
-                Lorem loremIpsum = LoremIpsum.getInstance();
-                Stream.generate(()->{
-                    try{
-                        return Files.createTempFile("ZippTest", ".txt").toFile();
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                }).limit(numTempFiles).parallel().forEach(tmpf-> {
-                    synchronized (System.out) {
-                        System.out.print(".");
-                    }
-                    tmpf.deleteOnExit();
-                    try(FileWriter fw = new FileWriter(tmpf)) {
-                         String txt = loremIpsum.getWords(7_000_000, 10_000_000);
-                         fw.write(txt);
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                    fileArgs.add(tmpf.getPath());
-                });
-                System.out.println(getMessage(Message.zipdone0));
+                fileArgs.addAll(generate(options));
             }
 
             // Check argument count. At least one zip file and one file/dir to be added to the zip is required.
-            if (fileArgs.isEmpty()) {
+            if (fileArgs.isEmpty() && !filesFrom) {
                 throw new NotEnoughArgumentsException(getMessage(Message.noargs));
             }
 
             beginUserMillis = midUserMillis = System.currentTimeMillis();
             beginCPUNanos = midCPUNanos = ((OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+            beginGC = gcTotals();
 
-            try (Zipp zip = new Zipp(zipName, options)) {  // Initialise zip archive
+            final List<Path> archives;
+            try (PathList list = filesFrom ? new PathList(options.get(Option.FILES_FROM)) : null;
+                 Zipp zip = new Zipp(zipName, options)) {  // Initialise zip archive
 
-                zip.addFiles(fileArgs);	// Add files
+                // Add files, those given as arguments first, then those of the list, as it is read
+                zip.addFiles(list == null ? fileArgs
+                        : () -> Stream.concat(fileArgs.stream(), StreamSupport.stream(list.spliterator(), false)).iterator());
+                archives = zip.archives();
+                bytesAdded = zip.bytesAdded();
+                filesAdded = zip.filesAdded();
 
                 if (test) {
                     midUserMillis = System.currentTimeMillis();
@@ -269,6 +1094,15 @@ public class Zipp implements Closeable {
 
             System.out.println(getMessage(Message.zpdone));
 
+            // Verify the archive, or shards, just created
+            if (verify) {
+                boolean ok = true;
+                for (Path archive : archives)
+                    ok &= verify(archive, options);
+                if (!ok)
+                    System.exit(3);
+            }
+
         } catch (NotEnoughArgumentsException | IllegalOptionException re) {
             System.err.println(re.getMessage());
             usage();
@@ -283,10 +1117,30 @@ public class Zipp implements Closeable {
             long userMillis = endUserMillis - midUserMillis;
             double cpuMillis = (endCPUNanos - midCPUNanos) / 1E6;
             System.out.printf(getMessage(Message.tstclose), (long) cpuMillis, userMillis, cpuMillis / userMillis);
-            userMillis = endUserMillis - beginUserMillis;
-            cpuMillis = (endCPUNanos - beginCPUNanos) / 1E6;
-            System.out.printf(getMessage(Message.tsttotal), (long) cpuMillis, userMillis, cpuMillis / userMillis);
-            System.out.printf(getMessage(Message.tstproc), availCPUs);
+            printTotals(beginUserMillis, beginCPUNanos, beginGC, filesAdded, bytesAdded);
         }
     }
+
+    /**
+     * Prints the test timings of a whole run.
+     * @param beginUserMillis Wall-clock time at the start
+     * @param beginCPUNanos Process CPU time at the start
+     * @param beginGC Garbage collection totals at the start
+     * @param files Number of files added, or -1 if not counted; the headline for many small files
+     * @param bytes Number of (uncompressed) bytes processed
+     */
+    private static void printTotals(final long beginUserMillis, final long beginCPUNanos, final long[] beginGC,
+                                    final long files, final long bytes) {
+        final long userMillis = System.currentTimeMillis() - beginUserMillis;
+        final double cpuMillis = (((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime()
+                - beginCPUNanos) / 1E6;
+        if (files >= 0)
+            System.out.printf(getMessage(Message.tstfiles), files, files * 1E3 / userMillis,
+                    files > 0 ? cpuMillis * 1E3 / files : 0.0);
+        System.out.printf(getMessage(Message.tsttotal), (long) cpuMillis, userMillis, cpuMillis / userMillis);
+        final long[] endGC = gcTotals();
+        System.out.printf(getMessage(Message.tstthru), bytes / 1E3 / userMillis,
+                bytes / 1E3 / cpuMillis, endGC[0] - beginGC[0], endGC[1] - beginGC[1]);
+        System.out.printf(getMessage(Message.tstproc), availCPUs);
+    }
 }
@@ -0,0 +1,64 @@
+package lb.zipp;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Zstandard method (zip method 93), using the pure-Java implementation of aircompressor, at its fixed
+ * compression level. Zstandard decompresses several times faster than deflate, at a similar or better ratio.
+ * <p>
+ * Such entries can be extracted by zipp, and by e.g. 7-Zip with Zstandard support, but not by Info-ZIP unzip.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+final class ZstdCodec implements Codec {
+    private static final int COPY_SIZE = 64 * 1024;
+
+    @Override
+    public String toString() {
+        return "zstd";
+    }
+
+    @Override
+    public int method() {
+        return ZipFormat.ZSTD;
+    }
+
+    @Override
+    public Encoder newEncoder(final EntryBuffer out) throws IOException {
+        final ZstdOutputStream zstd = new ZstdOutputStream(out);
+        return new Encoder() {
+            private byte[] copy;
+
+            @Override
+            public void update(final ByteBuffer chunk) throws IOException {
+                if (chunk.hasArray()) {
+                    zstd.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                    chunk.position(chunk.limit());
+                    return;
+                }
+                // A mapped chunk: the stream takes arrays only
+                if (copy == null)
+                    copy = new byte[COPY_SIZE];
+                while (chunk.hasRemaining()) {
+                    final int n = Math.min(copy.length, chunk.remaining());
+                    chunk.get(copy, 0, n);
+                    zstd.write(copy, 0, n);
+                }
+            }
+
+            @Override
+            public void finish() throws IOException {
+                zstd.close(); // Ends the frame; closing the entry buffer has no effect
+            }
+
+            @Override
+            public void end() {
+                copy = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package lb.zipp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link BlockDeflater}: the combined CRC, and the chaining of blocks, by their dictionaries and sync
+ * flushes, into one deflate stream.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+class BlockDeflaterTest {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static byte[] random(final int size, final long seed) {
+        final byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static long crc(final byte[] b, final int off, final int len) {
+        final CRC32 crc = new CRC32();
+        crc.update(b, off, len);
+        return crc.getValue();
+    }
+
+    @Test
+    void combinesCrcsOfConcatenation() {
+        final byte[] b = random(100_000, 1);
+        for (int split : new int[]{0, 1, 7, 4096, 65_536, 99_999, 100_000}) {
+            final long combined = BlockDeflater.crc32Combine(crc(b, 0, split), crc(b, split, b.length - split),
+                    b.length - split);
+            assertEquals(crc(b, 0, b.length), combined, "split at " + split);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, 3 * BLOCK_SIZE + 17, 5 * BLOCK_SIZE})
+    void deflatesBlocksIntoOneStream(final int size) throws IOException, DataFormatException {
+        final byte[] data = new byte[size];
+        final byte[] pattern = random(10_000, size);
+        for (int i = 0; i < size; i++)
+            data[i] = (i / 3) % 5 == 0 ? pattern[i % pattern.length] : (byte) ('a' + i % 26);
+
+        final BlockDeflater.Result result = deflate(data, MemoryBudget.unlimited(), pool);
+        assertEquals(size, result.size);
+        assertEquals(crc(data, 0, size), result.crc);
+    }
+
+    @Test
+    void primesEachBlockWithThePreviousBlock() throws IOException, DataFormatException {
+        // A random pattern, repeated: each block after the first only refers back into its dictionary
+        final byte[] pattern = random(16 * 1024, 2);
+        final byte[] data = new byte[4 * BLOCK_SIZE];
+        for (int i = 0; i < data.length; i++)
+            data[i] = pattern[i % pattern.length];
+        final Path file = Files.write(dir.resolve("data"), data);
+        final EntryBuffer out = new EntryBuffer();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            new BlockDeflater(BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, pool, MemoryBudget.unlimited()).deflate(in, out);
+        }
+        // Without the dictionaries, each block would cost at least the size of the pattern
+        assertTrue(out.size() < 2 * pattern.length, "compressed size " + out.size());
+        assertArrayEquals(data, inflate(out));
+    }
+
+    @Test
+    void releasesTheBudgetWhenABlockFails() throws IOException {
+        final long limit = 4L * BLOCK_SIZE;
+        final MemoryBudget budget = new MemoryBudget(limit, null);
+        final AtomicInteger submitted = new AtomicInteger();
+        final ForkJoinPool failing = new ForkJoinPool(2) {
+            @Override
+            public <T> ForkJoinTask<T> submit(final Callable<T> task) {
+                return super.submit(submitted.incrementAndGet() == 3
+                        ? () -> { throw new IllegalStateException("Block failed"); } : task);
+            }
+        };
+        final Path file = Files.write(dir.resolve("data"), random(10 * BLOCK_SIZE, 3));
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            final BlockDeflater deflater = new BlockDeflater(BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, failing, budget);
+            assertThrows(IllegalStateException.class, () -> deflater.deflate(in, new EntryBuffer()));
+        } finally {
+            failing.shutdown();
+        }
+        assertTrue(budget.tryReserve(limit), "budget still reserved");
+    }
+
+    private BlockDeflater.Result deflate(final byte[] data, final MemoryBudget budget, final ForkJoinPool pool)
+            throws IOException, DataFormatException {
+        final Path file = Files.write(dir.resolve("data"), data);
+        final EntryBuffer out = new EntryBuffer();
+        final BlockDeflater.Result result;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            result = new BlockDeflater(BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, pool, budget).deflate(in, out);
+        }
+        assertArrayEquals(data, inflate(out));
+        return result;
+    }
+
+    /**
+     * Inflates a raw deflate stream, which must end exactly at the end of the given data.
+     */
+    private static byte[] inflate(final EntryBuffer compressed) throws IOException, DataFormatException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        compressed.writeTo(bytes);
+        final byte[] in = bytes.toByteArray();
+        final Inflater inflater = new Inflater(true);
+        try {
+            // The extra byte lets the inflater detect the end of a stream without zlib header
+            inflater.setInput(Arrays.copyOf(in, in.length + 1));
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                final int n = inflater.inflate(buf);
+                if (n == 0 && inflater.needsInput())
+                    throw new DataFormatException("Unexpected end of deflate stream");
+                out.write(buf, 0, n);
+            }
+            assertEquals(in.length, inflater.getBytesRead(), "deflate stream does not end with the data");
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
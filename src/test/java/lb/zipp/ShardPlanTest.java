@@ -0,0 +1,81 @@
+package lb.zipp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ShardPlan}: the largest-first bin packing, and the manifest.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+class ShardPlanTest {
+    @TempDir
+    Path dir;
+
+    private static final List<Path> SHARDS = Arrays.asList(Paths.get("out", "backup-1.zip"),
+            Paths.get("out", "backup-2.zip"));
+
+    private static Map<Path, Long> files(final long... sizes) {
+        final Map<Path, Long> files = new LinkedHashMap<>();
+        for (int i = 0; i < sizes.length; i++)
+            files.put(Paths.get("src", "f" + i + ".txt"), sizes[i]);
+        return files;
+    }
+
+    @Test
+    void assignsLargestFirstToTheLightestShard() {
+        // 8 and 7 go to shards 0 and 1, 6 to shard 1 (7), 5 to shard 0 (8), 4 to shard 0 on the tie (13, 13)
+        final ShardPlan plan = new ShardPlan(files(5, 7, 4, 8, 6), SHARDS);
+        assertArrayEquals(new long[]{17, 13}, plan.loads());
+        assertEquals(Arrays.asList(Paths.get("src", "f3.txt"), Paths.get("src", "f1.txt"), Paths.get("src", "f4.txt"),
+                Paths.get("src", "f0.txt"), Paths.get("src", "f2.txt")), new ArrayList<>(plan.files()));
+        assertEquals(0, plan.shardOf(Paths.get("src", "f3.txt")));
+        assertEquals(1, plan.shardOf(Paths.get("src", "f1.txt")));
+        assertEquals(1, plan.shardOf(Paths.get("src", "f4.txt")));
+        assertEquals(0, plan.shardOf(Paths.get("src", "f0.txt")));
+        assertEquals(0, plan.shardOf(Paths.get("src", "f2.txt")));
+    }
+
+    @Test
+    void balancesManyFiles() {
+        final Random random = new Random(1);
+        final long[] sizes = new long[1000];
+        for (int i = 0; i < sizes.length; i++)
+            sizes[i] = 1 + random.nextInt(100_000);
+        final List<Path> shards = new ArrayList<>();
+        for (int i = 0; i < 7; i++)
+            shards.add(Paths.get("backup-" + (i + 1) + ".zip"));
+        final long[] loads = new ShardPlan(files(sizes), shards).loads();
+
+        final long total = Arrays.stream(sizes).sum();
+        assertEquals(total, Arrays.stream(loads).sum());
+        final long largest = Arrays.stream(sizes).max().getAsLong();
+        final long smallest = Arrays.stream(loads).min().getAsLong();
+        assertTrue(Arrays.stream(loads).max().getAsLong() - smallest <= largest, Arrays.toString(loads));
+    }
+
+    @Test
+    void writesManifest() throws IOException {
+        final Path manifest = dir.resolve("backup.manifest");
+        new ShardPlan(files(1, 2), SHARDS).writeManifest(manifest);
+        assertEquals(Arrays.asList("backup-1.zip\tsrc/f1.txt", "backup-2.zip\tsrc/f0.txt"),
+                Files.readAllLines(manifest, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,130 @@
+package lb.zipp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round trips of {@link ZipArchive}: entries are added from each kind of source, streamed to a channel, and
+ * read back with {@link ZipFile}.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+class ZipArchiveTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] text(final int size) {
+        final StringBuilder sb = new StringBuilder(size + 16);
+        for (int i = 0; sb.length() < size; i++)
+            sb.append("line ").append(i).append('\n');
+        return sb.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] random(final int size) {
+        final byte[] b = new byte[size];
+        new Random(size).nextBytes(b);
+        return b;
+    }
+
+    @ParameterizedTest
+    @CsvSource({"DEFLATE, 1", "DEFLATE, 4", "STORE, 1", "STORE, 4"})
+    void roundTripsEachSourceThroughAChannel(final ZipArchive.Method method, final int threads) throws IOException {
+        final Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("file.txt", text(300_000));
+        contents.put("dir/stream.bin", random(70_000));
+        contents.put("dir/sub/buffer.txt", text(5_000));
+        contents.put("channel.txt", text(0));
+        final Path file = Files.write(dir.resolve("file.txt"), contents.get("file.txt"));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Map<String, CompletableFuture<EntryStats>> futures = new LinkedHashMap<>();
+        try (WritableByteChannel out = Channels.newChannel(bytes);
+             ZipArchive zip = ZipArchive.builder().method(method).threads(threads)
+                     .blockSize(64 * 1024).blockThreshold(64 * 1024).create(out)) {
+            futures.put("file.txt", zip.add("file.txt", file));
+            futures.put("dir/stream.bin", zip.add("dir/stream.bin",
+                    new ByteArrayInputStream(contents.get("dir/stream.bin"))));
+            futures.put("dir/sub/buffer.txt", zip.add("dir/sub/buffer.txt",
+                    ByteBuffer.wrap(contents.get("dir/sub/buffer.txt"))));
+            futures.put("channel.txt", zip.add("channel.txt",
+                    Channels.newChannel(new ByteArrayInputStream(contents.get("channel.txt")))));
+        }
+
+        for (Map.Entry<String, CompletableFuture<EntryStats>> f : futures.entrySet()) {
+            final EntryStats stats = f.getValue().join();
+            final byte[] expected = contents.get(f.getKey());
+            assertEquals(f.getKey(), stats.name());
+            assertEquals(expected.length, stats.size());
+            assertEquals(crc(expected), stats.crc());
+        }
+
+        final Path archive = Files.write(dir.resolve("archive.zip"), bytes.toByteArray());
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (Map.Entry<String, byte[]> c : contents.entrySet()) {
+                final ZipEntry entry = zip.getEntry(c.getKey());
+                assertNotNull(entry, c.getKey());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(c.getValue(), in.readAllBytes(), c.getKey());
+                }
+            }
+            assertNotNull(zip.getEntry("dir/"));
+            assertNotNull(zip.getEntry("dir/sub/"));
+            assertEquals(contents.size() + 2, zip.size());
+        }
+    }
+
+    @Test
+    void rejectsDuplicateNames() throws IOException {
+        try (ZipArchive zip = ZipArchive.builder().create(dir.resolve("archive.zip"))) {
+            zip.add("a.txt", ByteBuffer.wrap(text(10))).join();
+            assertThrows(IllegalArgumentException.class, () -> zip.add("a.txt", ByteBuffer.wrap(text(20))));
+        }
+        try (ZipFile zip = new ZipFile(dir.resolve("archive.zip").toFile())) {
+            assertEquals(1, zip.size());
+            assertEquals(10, zip.getEntry("a.txt").getSize());
+        }
+    }
+
+    @Test
+    void acceptsNameOfFailedEntryAgain() throws IOException {
+        try (ZipArchive zip = ZipArchive.builder().create(dir.resolve("archive.zip"))) {
+            assertThrows(Exception.class, () -> zip.add("a.txt", dir.resolve("missing.txt")).join());
+            zip.add("a.txt", ByteBuffer.wrap(text(10))).join();
+        }
+        try (ZipFile zip = new ZipFile(dir.resolve("archive.zip").toFile())) {
+            assertEquals(1, zip.size());
+        }
+    }
+
+    private static long crc(final byte[] b) {
+        final CRC32 crc = new CRC32();
+        crc.update(b);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,106 @@
+package lb.zipp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of {@link ZipMerger}: the conflict rules, and the copying of entries as they are.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+class ZipMergerTest {
+    private static final long DOS_TIME = ZipFormat.javaToDosTime(1_600_000_000_000L);
+
+    @TempDir
+    Path dir;
+
+    private final EntryCompressor compressor = new EntryCompressor();
+
+    private Path archive(final String name, final String... namesAndContents) throws IOException {
+        final Path archive = dir.resolve(name);
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                final ArchiveEntry entry = compressor.compress(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8),
+                        namesAndContents[i], DOS_TIME, ZipFormat.DEFLATED, null);
+                writer.addDirectories(entry.name(), DOS_TIME);
+                writer.write(entry);
+            }
+        }
+        return archive;
+    }
+
+    private Map<String, String> merge(final ZipMerger.Conflict rule, final int conflicts) throws IOException {
+        final Path first = archive("first.zip", "d/x.txt", "x1", "d/README", "r1", "d/.hidden", "h1", "a.txt", "a");
+        final Path second = archive("second.zip", "d/x.txt", "x2", "d/README", "r2", "d/.hidden", "h2", "b.txt", "b");
+        final Path merged = dir.resolve("merged.zip");
+        try (ZipMerger merger = new ZipMerger(rule)) {
+            merger.add(first);
+            merger.add(second);
+            merger.writeTo(merged);
+            assertEquals(conflicts, merger.conflicts());
+        }
+        final Map<String, String> contents = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(merged.toFile())) {
+            for (ZipEntry e : Collections.list(zip.entries())) {
+                try (InputStream in = zip.getInputStream(e)) {
+                    contents.put(e.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return contents;
+    }
+
+    @Test
+    void keepsFirstEntry() throws IOException {
+        assertEquals(Map.of("d/", "", "d/x.txt", "x1", "d/README", "r1", "d/.hidden", "h1", "a.txt", "a",
+                "b.txt", "b"), merge(ZipMerger.Conflict.FIRST, 3));
+    }
+
+    @Test
+    void keepsLastEntry() throws IOException {
+        assertEquals(Map.of("d/", "", "d/x.txt", "x2", "d/README", "r2", "d/.hidden", "h2", "a.txt", "a",
+                "b.txt", "b"), merge(ZipMerger.Conflict.LAST, 3));
+    }
+
+    @Test
+    void renamesLaterEntries() throws IOException {
+        final Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("d/", "");
+        expected.put("d/x.txt", "x1");
+        expected.put("d/README", "r1");
+        expected.put("d/.hidden", "h1");
+        expected.put("a.txt", "a");
+        expected.put("d/x~2.txt", "x2");
+        expected.put("d/README~2", "r2");
+        expected.put("d/.hidden~2", "h2");
+        expected.put("b.txt", "b");
+        assertEquals(expected, merge(ZipMerger.Conflict.RENAME, 3));
+    }
+
+    @Test
+    void failsOnConflict() {
+        final ZipException e = assertThrows(ZipException.class, () -> merge(ZipMerger.Conflict.FAIL, 1));
+        assertEquals(true, e.getMessage().contains("d/x.txt"), e.getMessage());
+    }
+
+    @Test
+    void parsesRules() {
+        assertEquals(ZipMerger.Conflict.RENAME, ZipMerger.Conflict.parse("rename"));
+        assertThrows(IllegalOptionException.class, () -> ZipMerger.Conflict.parse("newest"));
+    }
+}
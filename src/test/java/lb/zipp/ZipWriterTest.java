@@ -0,0 +1,270 @@
+package lb.zipp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static lb.zipp.ZipFormat.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ZipWriter}: the Zip64 thresholds, updating and compacting existing archives, checkpoints, and
+ * failures of single entries and of the whole writer.
+ *
+ * @author Lennart Börjeson
+ *
+ */
+class ZipWriterTest {
+    private static final long DOS_TIME = ZipFormat.javaToDosTime(1_600_000_000_000L);
+
+    @TempDir
+    Path dir;
+
+    private final EntryCompressor compressor = new EntryCompressor();
+
+    private ArchiveEntry entry(final String name, final String content) throws IOException {
+        return compressor.compress(content.getBytes(StandardCharsets.UTF_8), name, DOS_TIME, DEFLATED, null);
+    }
+
+    /**
+     * Reads all entries of an archive with {@link ZipFile}, which also checks their CRCs.
+     */
+    private static Map<String, String> read(final Path archive) throws IOException {
+        final Map<String, String> contents = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (ZipEntry e : Collections.list(zip.entries())) {
+                try (InputStream in = zip.getInputStream(e)) {
+                    contents.put(e.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return contents;
+    }
+
+    private Path archive(final String... namesAndContents) throws IOException {
+        final Path archive = dir.resolve("archive.zip");
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            for (int i = 0; i < namesAndContents.length; i += 2)
+                writer.write(entry(namesAndContents[i], namesAndContents[i + 1]));
+        }
+        return archive;
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {ZIP64_MAGICVAL - 1, ZIP64_MAGICVAL, 5L << 30})
+    void writesZip64SizesFromTheThreshold(final long size) throws IOException {
+        final Path archive = dir.resolve("archive.zip");
+        final EntryBuffer data = new EntryBuffer();
+        data.write(new byte[100], 0, 100);
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            writer.write(new ArchiveEntry("large.bin", DEFLATED, 0, size, data.size(), DOS_TIME, data));
+        }
+        try (ZipReader reader = new ZipReader(archive)) {
+            final ArchiveEntry entry = reader.entries().get(0);
+            assertEquals(size, entry.size());
+            assertEquals(100, entry.compressedSize());
+            final long dataOffset = reader.checkLocalHeader(entry);
+            final int extra = (int) (dataOffset - entry.offset() - LOCHDR - "large.bin".length());
+            assertEquals(size >= ZIP64_MAGICVAL ? 20 : 0, extra);
+        }
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(size, zip.getEntry("large.bin").getSize());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {ZIP64_MAGICCOUNT - 1, ZIP64_MAGICCOUNT})
+    void writesZip64EndRecordFromTheEntryCount(final int count) throws IOException {
+        final Path archive = dir.resolve("archive.zip");
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            for (int i = 0; i < count; i++)
+                writer.write(ArchiveEntry.directory(String.format("d%05d/", i), DOS_TIME));
+        }
+        final byte[] bytes = Files.readAllBytes(archive);
+        final ByteBuffer tail = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(ENDSIG, tail.getInt(bytes.length - ENDHDR));
+        assertEquals(count >= ZIP64_MAGICCOUNT,
+                tail.getInt(bytes.length - ENDHDR - ZIP64_LOCHDR) == ZIP64_LOCSIG);
+        try (ZipReader reader = new ZipReader(archive)) {
+            assertEquals(count, reader.entries().size());
+        }
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(count, zip.size());
+        }
+    }
+
+    @Test
+    void updatesArchiveWhenClosed() throws IOException {
+        final Path archive = archive("a.txt", "old a", "b.txt", "b");
+        try (ZipReader existing = new ZipReader(archive);
+             ZipWriter writer = new ZipWriter(archive, existing)) {
+            writer.write(entry("a.txt", "new a")).join();
+            writer.write(entry("c.txt", "c")).join();
+            // Until closed, the archive is as it was
+            assertEquals(Map.of("a.txt", "old a", "b.txt", "b"), read(archive));
+        }
+        assertEquals(Map.of("a.txt", "new a", "b.txt", "b", "c.txt", "c"), read(archive));
+        assertFalse(Files.exists(ZipWriter.updatingPath(archive)));
+
+        final long size = Files.size(archive);
+        assertTrue(ZipWriter.compact(archive) > 0);
+        assertTrue(Files.size(archive) < size);
+        assertEquals(Map.of("a.txt", "new a", "b.txt", "b", "c.txt", "c"), read(archive));
+    }
+
+    @Test
+    void leavesArchiveUntouchedWhenUpdateIsInterrupted() throws IOException {
+        final Path archive = archive("a.txt", "a", "b.txt", "b");
+        final byte[] before = Files.readAllBytes(archive);
+        final ZipWriter writer;
+        try (ZipReader existing = new ZipReader(archive)) {
+            writer = new ZipWriter(archive, existing);
+        }
+        writer.write(entry("c.txt", "c")).join();
+        // Interrupting the writer thread while it writes closes the archive channel
+        final CompletionException e = assertThrows(CompletionException.class, () -> writer.write(
+                new ArchiveEntry("d.txt", STORED, 0, 1, 1, DOS_TIME, new EntryData() {
+                    @Override
+                    public long size() {
+                        return 1;
+                    }
+
+                    @Override
+                    public void writeTo(final WritableByteChannel out) throws IOException {
+                        Thread.currentThread().interrupt();
+                        out.write(ByteBuffer.wrap(new byte[1]));
+                    }
+
+                    @Override
+                    public void release() {
+                        // Nothing held
+                    }
+                })).join());
+        assertTrue(writer.failed(), e.toString());
+        assertThrows(IOException.class, writer::close);
+
+        assertArrayEquals(before, Files.readAllBytes(archive));
+        assertFalse(Files.exists(ZipWriter.updatingPath(archive)));
+        assertEquals(Map.of("a.txt", "a", "b.txt", "b"), read(archive));
+    }
+
+    @Test
+    void keepsFlagsOfExistingEntries() throws IOException {
+        // ZipOutputStream defers the CRC and sizes of deflated entries to data descriptors
+        final Path archive = dir.resolve("archive.zip");
+        try (OutputStream out = Files.newOutputStream(archive); ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("a.txt"));
+            zip.write("a".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        try (ZipReader existing = new ZipReader(archive);
+             ZipWriter writer = new ZipWriter(archive, existing)) {
+            assertEquals(FLAG_DATA_DESCRIPTOR, existing.entries().get(0).flags() & FLAG_DATA_DESCRIPTOR);
+            writer.write(entry("b.txt", "b"));
+        }
+        try (ZipReader reader = new ZipReader(archive)) {
+            for (ArchiveEntry entry : reader.entries()) {
+                final ByteBuffer loc = ByteBuffer.allocate(LOCHDR).order(ByteOrder.LITTLE_ENDIAN);
+                reader.channel().read(loc, entry.offset());
+                assertEquals(loc.getShort(6) & 0xFFFF, entry.flags(), entry.name());
+                reader.checkLocalHeader(entry);
+            }
+        }
+        assertEquals(Map.of("a.txt", "a", "b.txt", "b"), read(archive));
+    }
+
+    @Test
+    void leavesOutStoredFileChangedBeforeItIsCopied() throws IOException {
+        final Path file = Files.write(dir.resolve("file.txt"), "original".getBytes(StandardCharsets.UTF_8));
+        final EntryCompressor storing = new EntryCompressor(null, null, Long.MAX_VALUE, false, 0,
+                MemoryBudget.unlimited(), new Metrics());
+        final Path archive = dir.resolve("archive.zip");
+        try (ZipWriter writer = new ZipWriter(archive)) {
+            writer.write(entry("a.txt", "a")).join();
+            final ArchiveEntry stored = storing.compress(file, "file.txt");
+            Files.write(file, "short".getBytes(StandardCharsets.UTF_8));
+            assertThrows(CompletionException.class, () -> writer.write(stored).join());
+            assertFalse(writer.failed());
+            writer.write(entry("b.txt", "b")).join();
+        }
+        assertEquals(Map.of("a.txt", "a", "b.txt", "b"), read(archive));
+    }
+
+    @Test
+    void restoresFromCheckpoint() throws IOException {
+        final Path archive = dir.resolve("archive.zip");
+        final Path checkpoint = dir.resolve("archive.zip.checkpoint");
+        final Path killed = dir.resolve("killed.zip");
+        final Path killedCheckpoint = dir.resolve("killed.zip.checkpoint");
+        try (ZipWriter writer = new ZipWriter(archive).withCheckpoint(checkpoint, 0)) {
+            writer.write(entry("a.txt", "a")).join();
+            writer.write(entry("b.txt", "b")).join();
+            // The files as a killed run would leave them, with part of the next entry
+            Files.copy(archive, killed);
+            Files.copy(checkpoint, killedCheckpoint);
+            try (FileChannel out = FileChannel.open(killed, StandardOpenOption.APPEND)) {
+                out.write(ByteBuffer.wrap(new byte[]{0x50, 0x4b, 0x03, 0x04, 1, 2, 3}));
+            }
+            writer.write(entry("c.txt", "c")).join();
+        }
+        assertFalse(Files.exists(checkpoint));
+        assertEquals(Map.of("a.txt", "a", "b.txt", "b", "c.txt", "c"), read(archive));
+
+        ZipWriter.restore(killed, killedCheckpoint);
+        assertEquals(Map.of("a.txt", "a", "b.txt", "b"), read(killed));
+    }
+
+    @Test
+    void resumesCheckpointedUpdateFromItsCopy() throws IOException {
+        final Path archive = archive("a.txt", "a");
+        final byte[] before = Files.readAllBytes(archive);
+        final Path updating = ZipWriter.updatingPath(archive);
+        final Path checkpoint = dir.resolve("archive.zip.checkpoint");
+        final byte[] killed;
+        final byte[] killedCheckpoint;
+        try (ZipReader existing = new ZipReader(archive);
+             ZipWriter writer = new ZipWriter(archive, existing).withCheckpoint(checkpoint, 0)) {
+            writer.write(entry("b.txt", "b")).join();
+            killed = Files.readAllBytes(updating);
+            killedCheckpoint = Files.readAllBytes(checkpoint);
+        }
+        // Back to where the update was killed: the archive as it was, its partial copy, and the checkpoint
+        Files.write(archive, before);
+        Files.write(updating, killed);
+        Files.write(checkpoint, killedCheckpoint);
+
+        ZipWriter.restore(updating, checkpoint);
+        try (ZipReader existing = new ZipReader(updating);
+             ZipWriter writer = new ZipWriter(archive, existing).withCheckpoint(checkpoint, 0)) {
+            assertEquals(2, existing.entries().size());
+            writer.write(entry("c.txt", "c")).join();
+        }
+        assertFalse(Files.exists(updating));
+        assertFalse(Files.exists(checkpoint));
+        assertEquals(Map.of("a.txt", "a", "b.txt", "b", "c.txt", "c"), read(archive));
+    }
+}